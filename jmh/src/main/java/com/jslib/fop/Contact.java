@@ -0,0 +1,17 @@
+package com.jslib.fop;
+
+import java.util.Date;
+
+/**
+ * Model for small document benchmark, bound to <code>fixture/page.fo</code> template.
+ *
+ * @author Iulian Rotaru
+ */
+public class Contact
+{
+  public String name = "John";
+  public String surname = "Doe";
+  public String landline = "0232555666";
+  public String mobile = "0721555666";
+  public Date birthday = new Date(-183000000000L);
+}
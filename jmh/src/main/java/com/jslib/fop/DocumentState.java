@@ -0,0 +1,134 @@
+package com.jslib.fop;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.util.Properties;
+
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.fop.apps.Fop;
+import org.apache.fop.apps.FopFactory;
+import org.apache.fop.apps.MimeConstants;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.jslib.api.template.Template;
+import com.jslib.api.template.TemplateEngine;
+import com.jslib.container.mvc.AbstractView;
+import com.jslib.container.mvc.View;
+import com.jslib.container.mvc.ViewMeta;
+import com.jslib.util.Classes;
+
+/**
+ * Benchmark document: template file, model and precomputed artifacts for every rendering phase. Benchmark documents
+ * are:
+ * <ul>
+ * <li>small - single page document from <code>../fixture/page.fo</code>,
+ * <li>table - table heavy document of about ten pages,
+ * <li>large - multi-hundred pages document.
+ * </ul>
+ * Benchmarks are executed from <code>jmh</code> directory so that relative fixture paths are resolved.
+ *
+ * @author Iulian Rotaru
+ */
+@State(Scope.Benchmark)
+public class DocumentState
+{
+  @Param({ "small", "table", "large" })
+  public String document;
+
+  /** Template file used by views. */
+  File templateFile;
+
+  /** Model for dynamic content injection. */
+  Object model;
+
+  /** Parsed template. */
+  Template template;
+
+  /** Template serialized with model, that is, FO document. */
+  String templateFO;
+
+  /** FO document rendered to FOP intermediate format. */
+  byte[] intermediateFormat;
+
+  /** FOP factory shared by views with the same templates directory. */
+  FopFactory fopFactory;
+
+  @Setup
+  public void setup() throws Exception
+  {
+    switch(document) {
+    case "small":
+      templateFile = new File("../fixture/page.fo");
+      model = new Contact();
+      break;
+
+    case "table":
+      templateFile = new File("fixture/table.fo");
+      model = new Report(500);
+      break;
+
+    case "large":
+      templateFile = new File("fixture/table.fo");
+      model = new Report(20000);
+      break;
+
+    default:
+      throw new IllegalStateException("Unknown document " + document);
+    }
+
+    TemplateEngine templateEngine = Classes.loadService(TemplateEngine.class);
+    template = templateEngine.getTemplate(templateFile);
+    templateFO = template.serialize(model);
+
+    fopFactory = FopFactoryRegistry.getFopFactory(FopFactoryRegistry.DEFAULT_CONFIG, templateFile.getAbsoluteFile().getParentFile().toURI());
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    Fop fop = fopFactory.newFop(MimeConstants.MIME_FOP_IF, fopFactory.newFOUserAgent(), stream);
+    Transformers.transform(new StreamSource(new StringReader(templateFO)), new SAXResult(fop.getDefaultHandler()));
+    intermediateFormat = stream.toByteArray();
+  }
+
+  /**
+   * Create view instance initialized with this document meta, the same as container does for every request.
+   *
+   * @param view view instance.
+   * @return given view instance.
+   * @throws Exception if view meta initialization fails.
+   */
+  <T extends View> T view(T view) throws Exception
+  {
+    return view(view, new Properties());
+  }
+
+  /**
+   * Create view instance initialized with this document meta and given view properties.
+   *
+   * @param view view instance,
+   * @param properties view meta properties.
+   * @return given view instance.
+   * @throws Exception if view meta initialization fails.
+   */
+  <T extends View> T view(T view, Properties properties) throws Exception
+  {
+    Classes.invoke(view, AbstractView.class, "setMeta", new ViewMeta(templateFile, view.getClass(), properties));
+    view.setModel(model);
+    return view;
+  }
+
+  ByteArrayInputStream intermediateFormat()
+  {
+    return new ByteArrayInputStream(intermediateFormat);
+  }
+
+  static OutputStream nullOutputStream()
+  {
+    return OutputStream.nullOutputStream();
+  }
+}
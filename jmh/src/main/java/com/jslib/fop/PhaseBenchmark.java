@@ -0,0 +1,84 @@
+package com.jslib.fop;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.fop.apps.FOUserAgent;
+import org.apache.fop.apps.Fop;
+import org.apache.fop.apps.MimeConstants;
+import org.apache.fop.render.intermediate.IFDocumentHandler;
+import org.apache.fop.render.intermediate.IFParser;
+import org.apache.fop.render.intermediate.IFUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xml.sax.InputSource;
+import org.xml.sax.helpers.DefaultHandler;
+
+import com.jslib.api.template.Template;
+import com.jslib.api.template.TemplateEngine;
+import com.jslib.util.Classes;
+
+/**
+ * Rendering pipeline split by phases: template load, template serialization, FO parsing, layout and output. Layout is
+ * measured as FO rendering to FOP intermediate format and output as intermediate format rendering to PDF.
+ *
+ * @author Iulian Rotaru
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PhaseBenchmark
+{
+  private static final TemplateEngine templateEngine = Classes.loadService(TemplateEngine.class);
+  private static final SAXParserFactory parserFactory = SAXParserFactory.newInstance();
+  static {
+    parserFactory.setNamespaceAware(true);
+  }
+
+  @Benchmark
+  public Template templateLoad(DocumentState state) throws Exception
+  {
+    return templateEngine.getTemplate(state.templateFile);
+  }
+
+  @Benchmark
+  public String templateSerialize(DocumentState state) throws Exception
+  {
+    return state.template.serialize(state.model);
+  }
+
+  @Benchmark
+  public void foParse(DocumentState state) throws Exception
+  {
+    parserFactory.newSAXParser().parse(new InputSource(new StringReader(state.templateFO)), new DefaultHandler());
+  }
+
+  @Benchmark
+  public void layout(DocumentState state) throws Exception
+  {
+    Fop fop = state.fopFactory.newFop(MimeConstants.MIME_FOP_IF, state.fopFactory.newFOUserAgent(), DocumentState.nullOutputStream());
+    Transformers.transform(new StreamSource(new StringReader(state.templateFO)), new SAXResult(fop.getDefaultHandler()));
+  }
+
+  @Benchmark
+  public void output(DocumentState state) throws Exception
+  {
+    FOUserAgent agent = state.fopFactory.newFOUserAgent();
+    IFDocumentHandler documentHandler = agent.getRendererFactory().createDocumentHandler(agent, MimeConstants.MIME_PDF);
+    documentHandler.setResult(new StreamResult(DocumentState.nullOutputStream()));
+    IFUtil.setupFonts(documentHandler);
+    new IFParser().parse(new StreamSource(state.intermediateFormat()), documentHandler, agent);
+  }
+}
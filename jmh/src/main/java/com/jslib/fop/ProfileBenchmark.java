@@ -0,0 +1,54 @@
+package com.jslib.fop;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+/**
+ * PDF rendering time for every PDF size profile. Document size is printed at the end of every benchmark run, on
+ * benchmark output, e.g. <code>java -jar target/benchmarks.jar ProfileBenchmark -p document=table</code>.
+ *
+ * @author Iulian Rotaru
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProfileBenchmark
+{
+  @Param({ "default", "compact", "print", "uncompressed" })
+  public String profile;
+
+  /** Size of the last rendered document, in bytes. */
+  private volatile long documentSize;
+
+  @Benchmark
+  public void pdf(DocumentState state) throws Exception
+  {
+    Properties properties = new Properties();
+    properties.setProperty(PdfProfile.PROP_PDF_PROFILE, profile);
+    CountingOutputStream stream = new CountingOutputStream(DocumentState.nullOutputStream());
+    state.view(new PdfView(), properties).serialize(stream);
+    documentSize = stream.getCount();
+  }
+
+  @TearDown
+  public void tearDown(BenchmarkParams params)
+  {
+    System.out.printf("%nDocument %s, PDF profile %s: %d bytes%n", params.getParam("document"), profile, documentSize);
+  }
+}
@@ -0,0 +1,38 @@
+package com.jslib.fop;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End to end rendering with PDF and RTF views. A new view instance is created for every invocation, the same as
+ * container does for every HTTP request. Run with <code>-t</code> option to measure concurrent rendering, e.g.
+ * <code>java -jar target/benchmarks.jar RenderBenchmark -t 4</code>.
+ *
+ * @author Iulian Rotaru
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class RenderBenchmark
+{
+  @Benchmark
+  public void pdf(DocumentState state) throws Exception
+  {
+    state.view(new PdfView()).serialize(DocumentState.nullOutputStream());
+  }
+
+  @Benchmark
+  public void rtf(DocumentState state) throws Exception
+  {
+    state.view(new RtfView()).serialize(DocumentState.nullOutputStream());
+  }
+}
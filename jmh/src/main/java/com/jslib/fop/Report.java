@@ -0,0 +1,41 @@
+package com.jslib.fop;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Model for table heavy documents benchmark, bound to <code>fixture/table.fo</code> template. Report rows are generated
+ * so that document size is controlled by rows count.
+ *
+ * @author Iulian Rotaru
+ */
+public class Report
+{
+  public String title;
+  public List<Row> rows;
+
+  public Report(int rowsCount)
+  {
+    title = "Report with " + rowsCount + " rows";
+    rows = new ArrayList<>(rowsCount);
+    for(int i = 0; i < rowsCount; ++i) {
+      rows.add(new Row(i));
+    }
+  }
+
+  public static class Row
+  {
+    public int index;
+    public String name;
+    public String description;
+    public double amount;
+
+    public Row(int index)
+    {
+      this.index = index;
+      this.name = "Item " + index;
+      this.description = "Description for report item with index " + index + ". Long enough to be wrapped on cell width.";
+      this.amount = index * 3.14;
+    }
+  }
+}
@@ -0,0 +1,65 @@
+package com.jslib.fop;
+
+import java.io.File;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xml.sax.helpers.DefaultHandler;
+
+import com.jslib.api.template.TemplateEngine;
+import com.jslib.util.Classes;
+
+/**
+ * Per request transformer creation compared with reusable transformers from {@link Transformers}, under concurrent
+ * load. Small document is used so that transformer setup cost is not hidden by transformation itself.
+ *
+ * @author Iulian Rotaru
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class TransformerBenchmark
+{
+  @Benchmark
+  public void perRequestTransformer(SmallDocumentState state) throws Exception
+  {
+    TransformerFactory.newInstance().newTransformer().transform(new StreamSource(new StringReader(state.templateFO)), new SAXResult(new DefaultHandler()));
+  }
+
+  @Benchmark
+  public void reusedTransformer(SmallDocumentState state) throws Exception
+  {
+    Transformers.transform(new StreamSource(new StringReader(state.templateFO)), new SAXResult(new DefaultHandler()));
+  }
+
+  @State(Scope.Benchmark)
+  public static class SmallDocumentState
+  {
+    String templateFO;
+
+    @Setup
+    public void setup() throws Exception
+    {
+      TemplateEngine templateEngine = Classes.loadService(TemplateEngine.class);
+      templateFO = templateEngine.getTemplate(new File("../fixture/page.fo")).serialize(new Contact());
+    }
+  }
+}
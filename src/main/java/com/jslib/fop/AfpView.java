@@ -0,0 +1,25 @@
+package com.jslib.fop;
+
+import org.apache.fop.apps.MimeConstants;
+
+import com.jslib.api.log.Log;
+import com.jslib.api.log.LogFactory;
+
+/**
+ * View for AFP documents rendering, the Advanced Function Presentation format of high volume production printers.
+ * 
+ * @author Iulian Rotaru
+ * @version draft
+ */
+final class AfpView extends FoView
+{
+  /** Class logger. */
+  private static final Log log = LogFactory.getLog(AfpView.class);
+
+  /** Create AFP view instance. */
+  public AfpView()
+  {
+    super(MimeConstants.MIME_AFP, "AFP");
+    log.trace("AfpView()");
+  }
+}
@@ -0,0 +1,166 @@
+package com.jslib.fop;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.fop.apps.FopFactory;
+
+import com.jslib.api.log.Log;
+import com.jslib.api.log.LogFactory;
+import com.jslib.api.template.Template;
+
+/**
+ * Render many documents from the same XSL-FO template, outside servlet container. Models are consumed from an
+ * iterator and rendered in parallel, by default on as many threads as available processors. All documents share the
+ * same FOP factory - and therefore fonts setup and images cache - and the same parsed template. Rendered documents are
+ * handed to a {@link DocumentSink}, see predefined directory and ZIP stream sinks.
+ * <p>
+ * Models iterator is consumed lazily: the number of documents rendered but not yet written to sink is bounded to twice
+ * the number of threads, so that large batches do not need all models or documents in memory. A document that fails
+ * is logged and counted as failure; batch continues with next model.
+ *
+ * <pre>
+ * BatchRenderer renderer = new BatchRenderer(new File("invoice.fo"), MimeConstants.MIME_PDF);
+ * BatchStatistics statistics = renderer.render(invoices.iterator(), DocumentSink.directory(new File("invoices"), "pdf"));
+ * </pre>
+ *
+ * @author Iulian Rotaru
+ * @version draft
+ */
+public final class BatchRenderer
+{
+  /** Class logger. */
+  private static final Log log = LogFactory.getLog(BatchRenderer.class);
+
+  /** XSL-FO template file. */
+  private final File templateFile;
+
+  /** Output format MIME type. */
+  private final String mimeType;
+
+  /** Number of render threads. */
+  private int threads = Runtime.getRuntime().availableProcessors();
+
+  /** Template serialization streaming, see {@link TemplateReader}. */
+  private boolean streaming;
+
+  /**
+   * Create batch renderer for template file and output format.
+   *
+   * @param templateFile XSL-FO template file,
+   * @param mimeType output format MIME type, e.g. <code>application/pdf</code>.
+   */
+  public BatchRenderer(File templateFile, String mimeType)
+  {
+    this.templateFile = templateFile;
+    this.mimeType = mimeType;
+  }
+
+  /**
+   * Set the number of render threads. Default to available processors.
+   *
+   * @param threads number of render threads.
+   * @return this batch renderer.
+   */
+  public BatchRenderer setThreads(int threads)
+  {
+    this.threads = threads;
+    return this;
+  }
+
+  /**
+   * Enable template serialization streaming, recommended for large documents. Default to false.
+   *
+   * @param streaming streaming flag.
+   * @return this batch renderer.
+   */
+  public BatchRenderer setStreaming(boolean streaming)
+  {
+    this.streaming = streaming;
+    return this;
+  }
+
+  /**
+   * Render a document for every model from iterator and write it to sink. This method blocks till all documents are
+   * processed.
+   *
+   * @param models models iterator,
+   * @param sink destination for rendered documents.
+   * @return batch statistics.
+   * @throws IOException if FOP factory or template loading fails.
+   * @throws InterruptedIOException if current thread is interrupted while waiting for render threads.
+   */
+  public BatchStatistics render(Iterator<?> models, DocumentSink sink) throws IOException
+  {
+    FopFactory fopFactory = FopFactoryRegistry.getFopFactory(FopFactoryRegistry.DEFAULT_CONFIG, templateFile.getAbsoluteFile().getParentFile().toURI());
+    Template template = TemplateCache.instance().getTemplate(templateFile);
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("fo-batch-"));
+    Semaphore pendingDocuments = new Semaphore(2 * threads);
+    AtomicInteger documentsCount = new AtomicInteger();
+    AtomicInteger failuresCount = new AtomicInteger();
+    LongAdder bytesCount = new LongAdder();
+
+    log.debug("Start batch rendering for template |{}| on |{}| threads.", templateFile, threads);
+    long start = System.nanoTime();
+    try {
+      for(int index = 0; models.hasNext(); ++index) {
+        Object model = models.next();
+        int documentIndex = index;
+        pendingDocuments.acquire();
+
+        executor.execute(() -> {
+          try {
+            byte[] document = render(fopFactory, template, model);
+            sink.write(documentIndex, model, document);
+            documentsCount.incrementAndGet();
+            bytesCount.add(document.length);
+          }
+          catch(Throwable throwable) {
+            failuresCount.incrementAndGet();
+            log.error("Fail to render document |{}| from template |{}|.", documentIndex, templateFile);
+            log.dump(throwable.getMessage(), throwable);
+          }
+          finally {
+            pendingDocuments.release();
+          }
+        });
+      }
+      executor.shutdown();
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+    catch(InterruptedException e) {
+      executor.shutdownNow();
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Batch rendering interrupted.");
+    }
+    finally {
+      // models iterator may throw; allow already submitted documents to complete but do not keep threads alive
+      executor.shutdown();
+    }
+
+    BatchStatistics statistics = new BatchStatistics(documentsCount.get(), failuresCount.get(), bytesCount.sum(), System.nanoTime() - start);
+    log.info("Batch rendering for template |{}| complete: {}", templateFile, statistics);
+    return statistics;
+  }
+
+  private byte[] render(FopFactory fopFactory, Template template, Object model) throws IOException
+  {
+    ByteArrayOutputStream document = new ByteArrayOutputStream();
+    try (Reader reader = streaming ? new TemplateReader(template, model) : new StringReader(template.serialize(model))) {
+      FoRenderer.render(fopFactory, mimeType, fopFactory.newFOUserAgent(), reader, document);
+    }
+    return document.toByteArray();
+  }
+}
@@ -0,0 +1,59 @@
+package com.jslib.fop;
+
+/**
+ * Throughput statistics for a {@link BatchRenderer} run.
+ *
+ * @author Iulian Rotaru
+ * @version draft
+ */
+public final class BatchStatistics
+{
+  private final int documentsCount;
+  private final int failuresCount;
+  private final long bytesCount;
+  private final long elapsedNanos;
+
+  BatchStatistics(int documentsCount, int failuresCount, long bytesCount, long elapsedNanos)
+  {
+    this.documentsCount = documentsCount;
+    this.failuresCount = failuresCount;
+    this.bytesCount = bytesCount;
+    this.elapsedNanos = elapsedNanos;
+  }
+
+  /** Get the number of successfully rendered documents. */
+  public int getDocumentsCount()
+  {
+    return documentsCount;
+  }
+
+  /** Get the number of documents that failed to render or to be written to sink. */
+  public int getFailuresCount()
+  {
+    return failuresCount;
+  }
+
+  /** Get total size, in bytes, of rendered documents. */
+  public long getBytesCount()
+  {
+    return bytesCount;
+  }
+
+  /** Get batch wall clock duration, in milliseconds. */
+  public long getElapsedMillis()
+  {
+    return elapsedNanos / 1000000L;
+  }
+
+  /** Get throughput as rendered documents per second. */
+  public double getDocumentsPerSecond()
+  {
+    return elapsedNanos > 0 ? documentsCount * 1e9 / elapsedNanos : 0;
+  }
+
+  @Override
+  public String toString()
+  {
+    return String.format("%d documents, %d failures, %d bytes in %d msec; %.2f documents/sec", documentsCount, failuresCount, bytesCount, getElapsedMillis(), getDocumentsPerSecond());
+  }
+}
@@ -0,0 +1,50 @@
+package com.jslib.fop;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+
+import org.apache.fop.apps.io.ResourceResolverFactory;
+import org.apache.xmlgraphics.io.Resource;
+import org.apache.xmlgraphics.io.ResourceResolver;
+
+/**
+ * FOP resource resolver that serves local resource files from {@link ResourceCache}. Resources with other than
+ * <code>file</code> scheme and output streams are delegated to FOP default resolver.
+ *
+ * @author Iulian Rotaru
+ * @version draft
+ */
+final class CachingResourceResolver implements ResourceResolver
+{
+  /** FOP default resource resolver. */
+  private final ResourceResolver defaultResolver = ResourceResolverFactory.createDefaultResourceResolver();
+
+  @Override
+  public Resource getResource(URI uri) throws IOException
+  {
+    if(!"file".equals(uri.getScheme())) {
+      return defaultResolver.getResource(uri);
+    }
+    File file;
+    try {
+      file = new File(uri);
+    }
+    catch(IllegalArgumentException e) {
+      // file URI with authority, query or fragment
+      return defaultResolver.getResource(uri);
+    }
+    if(!file.isFile()) {
+      // let default resolver report missing file
+      return defaultResolver.getResource(uri);
+    }
+    return new Resource(ResourceCache.instance().getInputStream(file));
+  }
+
+  @Override
+  public OutputStream getOutputStream(URI uri) throws IOException
+  {
+    return defaultResolver.getOutputStream(uri);
+  }
+}
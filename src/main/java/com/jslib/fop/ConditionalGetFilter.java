@@ -0,0 +1,157 @@
+package com.jslib.fop;
+
+import java.io.IOException;
+
+import com.jslib.api.log.Log;
+import com.jslib.api.log.LogFactory;
+
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Servlet filter for conditional GET requests on cached FO views. Views have no access to HTTP request so they cannot
+ * evaluate request preconditions; instead, views with render cache enabled set <code>ETag</code> and
+ * <code>Last-Modified</code> response headers before writing the document. This filter compares those headers with
+ * request <code>If-None-Match</code>, respective <code>If-Modified-Since</code>, and on match turns the response into
+ * <code>304 Not Modified</code> and discards the document body.
+ * <p>
+ * Filter should be mapped on the URL patterns of PDF and RTF views only.
+ *
+ * @author Iulian Rotaru
+ * @version draft
+ */
+public final class ConditionalGetFilter implements Filter
+{
+  /** Class logger. */
+  private static final Log log = LogFactory.getLog(ConditionalGetFilter.class);
+
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException
+  {
+    HttpServletRequest httpRequest = (HttpServletRequest)request;
+    String ifNoneMatch = httpRequest.getHeader("If-None-Match");
+    long ifModifiedSince = httpRequest.getDateHeader("If-Modified-Since");
+    if(ifNoneMatch == null && ifModifiedSince == -1) {
+      chain.doFilter(request, response);
+      return;
+    }
+    chain.doFilter(request, new ConditionalResponse((HttpServletResponse)response, ifNoneMatch, ifModifiedSince));
+  }
+
+  /**
+   * HTTP response that switches to not modified status when view entity tag or last modified time match request
+   * preconditions.
+   *
+   * @author Iulian Rotaru
+   */
+  private static final class ConditionalResponse extends HttpServletResponseWrapper
+  {
+    private final String ifNoneMatch;
+    private final long ifModifiedSince;
+    private boolean notModified;
+
+    public ConditionalResponse(HttpServletResponse httpResponse, String ifNoneMatch, long ifModifiedSince)
+    {
+      super(httpResponse);
+      this.ifNoneMatch = ifNoneMatch;
+      this.ifModifiedSince = ifModifiedSince;
+    }
+
+    @Override
+    public void setHeader(String header, String value)
+    {
+      super.setHeader(header, value);
+      if("ETag".equalsIgnoreCase(header) && ifNoneMatch != null && matches(ifNoneMatch, value)) {
+        setNotModified();
+      }
+    }
+
+    @Override
+    public void setDateHeader(String header, long value)
+    {
+      super.setDateHeader(header, value);
+      // If-Modified-Since is ignored when If-None-Match is present; HTTP dates have seconds resolution
+      if("Last-Modified".equalsIgnoreCase(header) && ifNoneMatch == null && value / 1000 <= ifModifiedSince / 1000) {
+        setNotModified();
+      }
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException
+    {
+      return notModified ? new NullOutputStream() : super.getOutputStream();
+    }
+
+    /**
+     * Test if entity tag is on <code>If-None-Match</code> comma separated list or if list is <code>*</code>. Tags are
+     * compared exactly, except weak prefix that is ignored, as required by <code>If-None-Match</code> weak comparison.
+     *
+     * @param ifNoneMatch <code>If-None-Match</code> request header value,
+     * @param etag view entity tag.
+     * @return true if entity tag matches request precondition.
+     */
+    private static boolean matches(String ifNoneMatch, String etag)
+    {
+      if(ifNoneMatch.trim().equals("*")) {
+        return true;
+      }
+      String opaqueTag = opaqueTag(etag);
+      for(String tag : ifNoneMatch.split(",")) {
+        if(opaqueTag.equals(opaqueTag(tag))) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private static String opaqueTag(String tag)
+    {
+      tag = tag.trim();
+      return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
+
+    private void setNotModified()
+    {
+      log.debug("Request precondition match. Send not modified response.");
+      notModified = true;
+      super.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    }
+  }
+
+  /**
+   * Servlet output stream that discards written bytes.
+   *
+   * @author Iulian Rotaru
+   */
+  private static final class NullOutputStream extends ServletOutputStream
+  {
+    @Override
+    public void write(int b)
+    {
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length)
+    {
+    }
+
+    @Override
+    public boolean isReady()
+    {
+      return true;
+    }
+
+    @Override
+    public void setWriteListener(WriteListener writeListener)
+    {
+    }
+  }
+}
@@ -0,0 +1,45 @@
+package com.jslib.fop;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream that counts bytes written to target stream.
+ *
+ * @author Iulian Rotaru
+ * @version draft
+ */
+final class CountingOutputStream extends FilterOutputStream
+{
+  private long count;
+
+  public CountingOutputStream(OutputStream outputStream)
+  {
+    super(outputStream);
+  }
+
+  @Override
+  public void write(int b) throws IOException
+  {
+    out.write(b);
+    ++count;
+  }
+
+  @Override
+  public void write(byte[] buffer, int offset, int length) throws IOException
+  {
+    out.write(buffer, offset, length);
+    count += length;
+  }
+
+  /**
+   * Get the number of bytes written so far.
+   *
+   * @return written bytes count.
+   */
+  public long getCount()
+  {
+    return count;
+  }
+}
@@ -0,0 +1,38 @@
+package com.jslib.fop;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Factory for named daemon threads used by this package executors. Threads are daemons so that they do not prevent JVM
+ * exit.
+ *
+ * @author Iulian Rotaru
+ * @version draft
+ */
+final class DaemonThreadFactory implements ThreadFactory
+{
+  /** Threads name prefix. */
+  private final String prefix;
+
+  /** Index of the last created thread. */
+  private final AtomicInteger index = new AtomicInteger();
+
+  /**
+   * Create thread factory for given threads name prefix.
+   *
+   * @param prefix threads name prefix.
+   */
+  public DaemonThreadFactory(String prefix)
+  {
+    this.prefix = prefix;
+  }
+
+  @Override
+  public Thread newThread(Runnable runnable)
+  {
+    Thread thread = new Thread(runnable, prefix + index.incrementAndGet());
+    thread.setDaemon(true);
+    return thread;
+  }
+}
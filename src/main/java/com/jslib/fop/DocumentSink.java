@@ -0,0 +1,80 @@
+package com.jslib.fop;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Destination for documents produced by {@link BatchRenderer}. Sink is invoked concurrently from render threads, in no
+ * particular order; implementations that write to a shared stream should synchronize. This interface is functional so
+ * that a lambda expression can be used as callback sink.
+ *
+ * @author Iulian Rotaru
+ * @version draft
+ */
+@FunctionalInterface
+public interface DocumentSink
+{
+  /**
+   * Store rendered document.
+   *
+   * @param index document index, in models iteration order,
+   * @param model model used to render the document,
+   * @param document rendered document bytes.
+   * @throws IOException if document write fails.
+   */
+  void write(int index, Object model, byte[] document) throws IOException;
+
+  /**
+   * Create sink that stores documents on given directory, one file per document. Files are named after document index
+   * and have requested extension, e.g. <code>document-00042.pdf</code>.
+   *
+   * @param directory target directory, created if missing,
+   * @param extension file extension, without dot.
+   * @return directory sink.
+   * @throws IOException if directory creation fails.
+   */
+  static DocumentSink directory(File directory, String extension) throws IOException
+  {
+    Files.createDirectories(directory.toPath());
+    return (index, model, document) -> Files.write(new File(directory, String.format("document-%05d.%s", index, extension)).toPath(), document);
+  }
+
+  /**
+   * Create sink that stores documents as entries of a ZIP stream. Entries are named like {@link #directory(File, String)}
+   * files. Caller is responsible for ZIP stream finishing and closing after batch completes.
+   *
+   * @param zipStream target ZIP stream,
+   * @param extension entries extension, without dot.
+   * @return ZIP sink.
+   */
+  static DocumentSink zip(ZipOutputStream zipStream, String extension)
+  {
+    return (index, model, document) -> {
+      synchronized(zipStream) {
+        zipStream.putNextEntry(new ZipEntry(String.format("document-%05d.%s", index, extension)));
+        zipStream.write(document);
+        zipStream.closeEntry();
+      }
+    };
+  }
+
+  /**
+   * Create sink that writes documents back to back on given output stream, in completion order. Mostly for testing and
+   * for formats that can be concatenated.
+   *
+   * @param outputStream target output stream.
+   * @return stream sink.
+   */
+  static DocumentSink stream(OutputStream outputStream)
+  {
+    return (index, model, document) -> {
+      synchronized(outputStream) {
+        outputStream.write(document);
+      }
+    };
+  }
+}
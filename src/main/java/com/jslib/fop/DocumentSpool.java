@@ -0,0 +1,141 @@
+package com.jslib.fop;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.jslib.api.log.Log;
+import com.jslib.api.log.LogFactory;
+import com.jslib.container.mvc.ViewMeta;
+
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Temporary file used to spool rendered document before sending it to client. Intended for very large documents that
+ * should not be buffered in memory, neither by view nor by servlet container when content length is required. Document
+ * is rendered to spool file through a file channel; after rendering completes, response content length is set to exact
+ * spool file size and spool file is transferred to response output stream with {@link FileChannel#transferTo(long,
+ * long, WritableByteChannel)}. Since servlet output stream is not a file or socket channel, transfer is not zero-copy:
+ * spool file content is copied through a bounded buffer, so memory use does not depend on document size.
+ * <p>
+ * Since nothing is written on response before rendering completes, a failed rendering does not send a truncated
+ * document to client. Spool file is deleted on {@link #close()}, no matter rendering succeeded or failed.
+ * <p>
+ * Spool mode is enabled per view, from view meta properties:
+ * <ul>
+ * <li>{@link #PROP_SPOOL} - flag to enable spool mode, default to false,
+ * <li>{@link #PROP_SPOOL_DIR} - optional directory for spool files, default to system temporary directory.
+ * </ul>
+ *
+ * @author Iulian Rotaru
+ * @version draft
+ */
+final class DocumentSpool implements Closeable
+{
+  /** Class logger. */
+  private static final Log log = LogFactory.getLog(DocumentSpool.class);
+
+  static final String PROP_SPOOL = "spool";
+  static final String PROP_SPOOL_DIR = "spool-dir";
+
+  /**
+   * Test if spool mode is enabled for view described by given meta.
+   *
+   * @param meta view meta.
+   * @return true if spool mode is enabled.
+   */
+  public static boolean isEnabled(ViewMeta meta)
+  {
+    return Boolean.parseBoolean(meta.getProperty(PROP_SPOOL));
+  }
+
+  /** Spool file path. */
+  private final Path file;
+
+  /** Read and write channel on spool file. */
+  private final FileChannel channel;
+
+  /**
+   * Create spool file on directory configured by view meta or on system temporary directory.
+   *
+   * @param meta view meta.
+   * @throws IOException if spool file creation fails.
+   */
+  public DocumentSpool(ViewMeta meta) throws IOException
+  {
+    if(meta.hasProperty(PROP_SPOOL_DIR)) {
+      File spoolDir = new File(meta.getProperty(PROP_SPOOL_DIR));
+      if(!spoolDir.isDirectory() && !spoolDir.mkdirs()) {
+        throw new IOException(String.format("Cannot create spool directory |%s|.", spoolDir));
+      }
+      file = Files.createTempFile(spoolDir.toPath(), "fo-spool-", ".tmp");
+    }
+    else {
+      file = Files.createTempFile("fo-spool-", ".tmp");
+    }
+    log.debug("Create document spool file |{}|.", file);
+    try {
+      channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+    }
+    catch(IOException | RuntimeException e) {
+      // spool instance is not created and close is never called; do not leak spool file
+      try {
+        Files.deleteIfExists(file);
+      }
+      catch(IOException deleteException) {
+        e.addSuppressed(deleteException);
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Get output stream writing to spool file. Returned stream is not buffered; closing it closes spool file channel.
+   *
+   * @return spool file output stream.
+   */
+  public OutputStream getOutputStream()
+  {
+    return Channels.newOutputStream(channel);
+  }
+
+  /**
+   * Set response content length to spool file size and transfer spool file content to response output stream.
+   *
+   * @param httpResponse HTTP response, not yet committed,
+   * @param outputStream response output stream.
+   * @throws IOException if transfer fails, most probably because client closed connection.
+   */
+  public void transfer(HttpServletResponse httpResponse, OutputStream outputStream) throws IOException
+  {
+    long size = channel.size();
+    httpResponse.setContentLengthLong(size);
+
+    WritableByteChannel target = Channels.newChannel(outputStream);
+    long position = 0;
+    while(position < size) {
+      position += channel.transferTo(position, size - position, target);
+    }
+    outputStream.flush();
+  }
+
+  /** Close spool file channel and delete spool file. */
+  @Override
+  public void close() throws IOException
+  {
+    try {
+      channel.close();
+    }
+    finally {
+      // spool file is opened with delete on close option; explicit delete covers platforms that do not honor it
+      Files.deleteIfExists(file);
+    }
+  }
+}
@@ -0,0 +1,324 @@
+package com.jslib.fop;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.function.UnaryOperator;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.apache.fop.apps.FOUserAgent;
+import org.apache.fop.apps.Fop;
+import org.apache.fop.apps.FopFactory;
+import org.apache.fop.render.intermediate.IFException;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+import com.jslib.api.template.Template;
+import com.jslib.lang.BugError;
+
+/**
+ * Render a collection of models with the same template into a single document, in a single FO processor run. Template
+ * is serialized for every model from collection and resulting FO documents are parsed, one after another, into the
+ * same FO processor: root element and root children preceding page sequences - layout master set, declarations and
+ * bookmark tree - are taken from first document only, while page sequences from all documents are concatenated. In this way there is a single layout pass, a single fonts subset and no post-merge
+ * step.
+ * <p>
+ * Only one model FO document is parsed at a time and, if streaming is enabled, it is never entirely loaded in memory.
+ * FOP renders and releases page sequences as they are completed, so memory is bounded no matter collection size.
+ * <p>
+ * Since template is repeated, element IDs from template are repeated too and FOP rejects duplicated IDs; templates
+ * used for concatenation should not declare <code>id</code> attributes.
+ *
+ * @author Iulian Rotaru
+ * @version draft
+ */
+final class FoConcatenator
+{
+  /** XSL-FO namespace. */
+  private static final String FO_NS = "http://www.w3.org/1999/XSL/Format";
+
+  /** Namespace aware SAX parser factory. Factory is not guaranteed to be thread safe and is used under its own lock. */
+  private static final SAXParserFactory parserFactory = SAXParserFactory.newInstance();
+  static {
+    parserFactory.setNamespaceAware(true);
+  }
+
+  /** Prevent default constructor synthesis. */
+  private FoConcatenator()
+  {
+  }
+
+  /**
+   * Get iterator over models collection. Supported collections are {@link Iterable}, {@link Iterator} and arrays.
+   *
+   * @param model models collection.
+   * @return models iterator.
+   * @throws BugError if model is not a supported collection.
+   */
+  public static Iterator<?> models(Object model)
+  {
+    if(model instanceof Iterable) {
+      return ((Iterable<?>)model).iterator();
+    }
+    if(model instanceof Iterator) {
+      return (Iterator<?>)model;
+    }
+    if(model instanceof Object[]) {
+      return Arrays.asList((Object[])model).iterator();
+    }
+    if(model.getClass().isArray()) {
+      Object[] items = new Object[Array.getLength(model)];
+      for(int i = 0; i < items.length; ++i) {
+        items[i] = Array.get(model, i);
+      }
+      return Arrays.asList(items).iterator();
+    }
+    throw new BugError("Model for concatenated document should be a collection but is |%s|.", model.getClass());
+  }
+
+  /**
+   * Render concatenated document.
+   *
+   * @param fopFactory FOP factory,
+   * @param mimeType output format MIME type,
+   * @param agent user agent, configured by caller,
+   * @param template template serialized for every model,
+   * @param models models iterator, not empty,
+   * @param streaming if true, template serialization is streamed, see {@link TemplateReader},
+   * @param outputStream output stream for rendered document,
+   * @param filter content handler filter wrapping FO processor default handler, e.g. render cancellation, null if not
+   *          used.
+   * @return FO processor, useful for processing results inspection.
+   * @throws IOException if rendering fails.
+   * @throws BugError if models iterator is empty.
+   */
+  public static Fop render(FopFactory fopFactory, String mimeType, FOUserAgent agent, Template template, Iterator<?> models, boolean streaming, OutputStream outputStream, UnaryOperator<ContentHandler> filter) throws IOException
+  {
+    if(!models.hasNext()) {
+      throw new BugError("Empty models collection for concatenated document.");
+    }
+
+    Fop fop = null;
+    try {
+      fop = fopFactory.newFop(mimeType, agent, outputStream);
+      ContentHandler target = fop.getDefaultHandler();
+      ConcatenationHandler handler = new ConcatenationHandler(filter != null ? filter.apply(target) : target);
+      XMLReader xmlReader = newXMLReader();
+      xmlReader.setContentHandler(handler);
+
+      while(models.hasNext()) {
+        Object model = models.next();
+        try (Reader reader = streaming ? new TemplateReader(template, model) : new StringReader(template.serialize(model))) {
+          xmlReader.parse(new InputSource(reader));
+        }
+        handler.nextDocument();
+      }
+      handler.endConcatenation();
+      return fop;
+    }
+    catch(SAXException e) {
+      if(OutputControl.isPageRangeComplete(e)) {
+        return fop;
+      }
+      throw new IOException(e);
+    }
+    catch(RuntimeException e) {
+      // layout stopped after last page from page range; document is complete, see OutputControl
+      if(OutputControl.isPageRangeComplete(e)) {
+        return fop;
+      }
+      // intermediate format renderer reports document handler failures, e.g. pages limit, as runtime exceptions
+      if(e.getCause() instanceof IFException) {
+        throw new IOException(e.getCause());
+      }
+      throw e;
+    }
+  }
+
+  private static XMLReader newXMLReader() throws SAXException
+  {
+    synchronized(parserFactory) {
+      try {
+        return parserFactory.newSAXParser().getXMLReader();
+      }
+      catch(ParserConfigurationException e) {
+        throw new BugError(e);
+      }
+    }
+  }
+
+  /**
+   * Content handler that merges a sequence of FO documents into target handler. Document start, root element and
+   * root children preceding page sequences are forwarded only from first document; root element end and document end
+   * are deferred till {@link #endConcatenation()}. From subsequent documents only page sequences and page sequence
+   * wrappers are forwarded, so that concatenated document still conforms to <code>fo:root</code> content model.
+   *
+   * @author Iulian Rotaru
+   */
+  static final class ConcatenationHandler implements ContentHandler
+  {
+    private final ContentHandler target;
+
+    /** Flag true while parsing first document. */
+    private boolean firstDocument = true;
+
+    /** Current element depth, root element being at depth 1. */
+    private int depth;
+
+    /** Depth of the element whose subtree is currently skipped, or -1 if not skipping. */
+    private int skipDepth = -1;
+
+    /** Root element names from first document, used to close concatenated document. */
+    private String rootURI;
+    private String rootLocalName;
+    private String rootQName;
+
+    ConcatenationHandler(ContentHandler target)
+    {
+      this.target = target;
+    }
+
+    void nextDocument()
+    {
+      firstDocument = false;
+      depth = 0;
+      skipDepth = -1;
+    }
+
+    void endConcatenation() throws SAXException
+    {
+      target.endElement(rootURI, rootLocalName, rootQName);
+      target.endDocument();
+    }
+
+    private boolean forward()
+    {
+      return skipDepth == -1 && (firstDocument || depth > 0);
+    }
+
+    private static boolean isPageSequence(String uri, String localName)
+    {
+      return FO_NS.equals(uri) && ("page-sequence".equals(localName) || "page-sequence-wrapper".equals(localName));
+    }
+
+    @Override
+    public void setDocumentLocator(Locator locator)
+    {
+      target.setDocumentLocator(locator);
+    }
+
+    @Override
+    public void startDocument() throws SAXException
+    {
+      if(firstDocument) {
+        target.startDocument();
+      }
+    }
+
+    @Override
+    public void endDocument() throws SAXException
+    {
+    }
+
+    @Override
+    public void startPrefixMapping(String prefix, String uri) throws SAXException
+    {
+      if(forward()) {
+        target.startPrefixMapping(prefix, uri);
+      }
+    }
+
+    @Override
+    public void endPrefixMapping(String prefix) throws SAXException
+    {
+      // root element prefix mappings are not closed since root element end is deferred
+      if(skipDepth == -1 && depth > 0) {
+        target.endPrefixMapping(prefix);
+      }
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException
+    {
+      ++depth;
+      if(skipDepth != -1) {
+        return;
+      }
+      if(depth == 1) {
+        if(firstDocument) {
+          rootURI = uri;
+          rootLocalName = localName;
+          rootQName = qName;
+          target.startElement(uri, localName, qName, attributes);
+        }
+        return;
+      }
+      if(!firstDocument && depth == 2 && !isPageSequence(uri, localName)) {
+        skipDepth = depth;
+        return;
+      }
+      target.startElement(uri, localName, qName, attributes);
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) throws SAXException
+    {
+      try {
+        if(skipDepth != -1) {
+          if(depth == skipDepth) {
+            skipDepth = -1;
+          }
+          return;
+        }
+        if(depth > 1) {
+          target.endElement(uri, localName, qName);
+        }
+      }
+      finally {
+        --depth;
+      }
+    }
+
+    @Override
+    public void characters(char[] chars, int start, int length) throws SAXException
+    {
+      if(skipDepth == -1 && depth > 0) {
+        target.characters(chars, start, length);
+      }
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] chars, int start, int length) throws SAXException
+    {
+      if(skipDepth == -1 && depth > 0) {
+        target.ignorableWhitespace(chars, start, length);
+      }
+    }
+
+    @Override
+    public void processingInstruction(String target, String data) throws SAXException
+    {
+      if(skipDepth == -1 && depth > 0) {
+        this.target.processingInstruction(target, data);
+      }
+    }
+
+    @Override
+    public void skippedEntity(String name) throws SAXException
+    {
+      if(skipDepth == -1 && depth > 0) {
+        target.skippedEntity(name);
+      }
+    }
+  }
+}
@@ -0,0 +1,110 @@
+package com.jslib.fop;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.function.UnaryOperator;
+
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.fop.apps.FOPException;
+import org.apache.fop.apps.FOUserAgent;
+import org.apache.fop.apps.Fop;
+import org.apache.fop.apps.FopFactory;
+import org.apache.fop.render.intermediate.IFException;
+import org.xml.sax.ContentHandler;
+
+/**
+ * Render serialized FO document to requested output format. This is the common rendering step used by views and by
+ * batch renderer: create FO processor for user agent and output stream then pipe FO document into processor default
+ * handler using reusable identity transformer.
+ *
+ * @author Iulian Rotaru
+ * @version draft
+ */
+final class FoRenderer
+{
+  /** Prevent default constructor synthesis. */
+  private FoRenderer()
+  {
+  }
+
+  /**
+   * Render FO document.
+   *
+   * @param fopFactory FOP factory,
+   * @param mimeType output format MIME type,
+   * @param agent user agent, configured by caller,
+   * @param foReader serialized FO document,
+   * @param outputStream output stream for rendered document.
+   * @return FO processor, useful for processing results inspection.
+   * @throws IOException if rendering fails.
+   */
+  public static Fop render(FopFactory fopFactory, String mimeType, FOUserAgent agent, Reader foReader, OutputStream outputStream) throws IOException
+  {
+    return render(fopFactory, mimeType, agent, foReader, outputStream, null);
+  }
+
+  /**
+   * Render FO document with FO parsing events passed through a content handler filter, e.g. {@link TableRowStreamer}.
+   *
+   * @param fopFactory FOP factory,
+   * @param mimeType output format MIME type,
+   * @param agent user agent, configured by caller,
+   * @param foReader serialized FO document,
+   * @param outputStream output stream for rendered document,
+   * @param filter content handler filter wrapping FO processor default handler, null if not used.
+   * @return FO processor, useful for processing results inspection.
+   * @throws IOException if rendering fails.
+   */
+  public static Fop render(FopFactory fopFactory, String mimeType, FOUserAgent agent, Reader foReader, OutputStream outputStream, UnaryOperator<ContentHandler> filter) throws IOException
+  {
+    Fop fop;
+    try {
+      fop = fopFactory.newFop(mimeType, agent, outputStream);
+    }
+    catch(FOPException e) {
+      throw new IOException(e);
+    }
+
+    try {
+      Source source = new StreamSource(foReader);
+      ContentHandler handler = fop.getDefaultHandler();
+      Result destination = new SAXResult(filter != null ? filter.apply(handler) : handler);
+      Transformers.transform(source, destination);
+      return fop;
+    }
+    catch(TransformerException e) {
+      if(OutputControl.isPageRangeComplete(e)) {
+        return fop;
+      }
+      throw new IOException(e);
+    }
+    catch(RuntimeException e) {
+      // layout stopped after last page from page range; document is complete, see OutputControl
+      if(OutputControl.isPageRangeComplete(e)) {
+        return fop;
+      }
+      // intermediate format renderer reports document handler failures, e.g. pages limit, as runtime exceptions
+      if(e.getCause() instanceof IFException) {
+        throw new IOException(e.getCause());
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Get the number of pages rendered by FO processor. Returns zero if output format does not report pages, e.g. RTF.
+   *
+   * @param fop FO processor, after rendering completes.
+   * @return rendered pages count.
+   */
+  public static int getPageCount(Fop fop)
+  {
+    return fop.getResults() != null ? fop.getResults().getPageCount() : 0;
+  }
+}
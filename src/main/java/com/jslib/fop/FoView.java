@@ -0,0 +1,427 @@
+package com.jslib.fop;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.function.UnaryOperator;
+
+import org.apache.fop.apps.FOUserAgent;
+import org.apache.fop.apps.FopFactory;
+import org.xml.sax.ContentHandler;
+
+import com.jslib.api.log.Log;
+import com.jslib.api.log.LogFactory;
+import com.jslib.api.template.Template;
+import com.jslib.container.mvc.AbstractView;
+import com.jslib.lang.BugError;
+
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Base class for views rendering XSL-FO templates with Apache FOP. This class owns the rendering pipeline common to all
+ * output formats: shared FOP factory, cached templates, template serialization, user agent setup from view meta
+ * properties, pooled transformer and output control; concrete views are parameterized by output format MIME type.
+ * <p>
+ * This view uses XSL-FO formatted templates to describe document and relies on {@link Template templates engine} for
+ * dynamic content injection and on Apache FOP library to actually transform FO into requested output format. Optional
+ * features - asynchronous rendering, render cache, spool mode, intermediate format cache, render workers, streaming
+ * and concatenation - are enabled from view meta properties and are available to all output formats, where supported
+ * by FOP.
+ * <p>
+ * View instance is safe for concurrent serialization: meta and model are only read, view meta properties are parsed
+ * once into an immutable {@link RenderProfile}, and state of the request being serialized is confined to serializing
+ * thread, see {@link RequestState}. Shared FOP factories, templates and caches are thread safe.
+ *
+ * @author Iulian Rotaru
+ * @version draft
+ */
+abstract class FoView extends AbstractView
+{
+  /** Class logger. */
+  private static final Log log = LogFactory.getLog(FoView.class);
+
+  /** Output format MIME type, used also as response content type. */
+  private final String mimeType;
+
+  /** Output format name used on log messages, e.g. PDF. */
+  private final String formatName;
+
+  /**
+   * State of the request serialized by current thread, set before delegating to super-class serialization and read by
+   * {@link #serialize(OutputStream)}, invoked back on the same thread.
+   */
+  private static final ThreadLocal<RequestState> requestState = new ThreadLocal<>();
+
+  /**
+   * Create view for output format.
+   *
+   * @param mimeType output format MIME type, see FOP {@link org.apache.fop.apps.MimeConstants},
+   * @param formatName output format name used on log messages.
+   */
+  protected FoView(String mimeType, String formatName)
+  {
+    this.mimeType = mimeType;
+    this.formatName = formatName;
+  }
+
+  @Override
+  protected String getContentType()
+  {
+    return mimeType;
+  }
+
+  /**
+   * Serialize view on HTTP response. If asynchronous mode is enabled for this view, serialization is executed by
+   * {@link RenderExecutor}, otherwise on current thread.
+   */
+  @Override
+  public void serialize(HttpServletResponse httpResponse) throws IOException
+  {
+    RenderExecutor renderExecutor = RenderExecutor.getInstance(meta);
+    if(renderExecutor != null) {
+      renderExecutor.render(meta, httpResponse, () -> serializeResponse(httpResponse));
+      return;
+    }
+    serializeResponse(httpResponse);
+  }
+
+  /**
+   * Set entity tag and last modified response headers if render cache is enabled for this view, then delegate to
+   * super-class. See {@link ConditionalGetFilter} for conditional GET requests processing. Cached documents are sent
+   * with <code>private, no-cache</code> instead of super-class <code>no-store</code>, so that client keeps the
+   * document and revalidates it with entity tag, see {@link RevalidatedResponse}.
+   *
+   * @param httpResponse HTTP response.
+   * @throws IOException if document serialization fails.
+   */
+  private void serializeResponse(HttpServletResponse httpResponse) throws IOException
+  {
+    // model with lazy row sources cannot be serialized to JSON for fingerprint, see RenderProfile#isLazyRows()
+    String cacheKey = null;
+    long lastModified = 0;
+    RenderCache renderCache = getRenderCache();
+    RenderProfile profile = RenderProfile.getInstance(meta);
+    if(renderCache != null && model != null && !profile.isLazyRows()) {
+      cacheKey = RenderCache.getKey(getClass(), profile, meta.getTemplateFile(), mimeType, model);
+      if(cacheKey != null) {
+        // on cache miss document is cached with the same time sent now on response, see RenderCache#capture
+        lastModified = renderCache.getLastModified(cacheKey);
+        httpResponse.setHeader("ETag", RenderCache.getETag(cacheKey));
+        httpResponse.setDateHeader("Last-Modified", lastModified);
+      }
+    }
+    HttpServletResponse spoolResponse = DocumentSpool.isEnabled(meta) ? httpResponse : null;
+
+    requestState.set(new RequestState(cacheKey, lastModified, spoolResponse));
+    try {
+      super.serialize(cacheKey != null ? new RevalidatedResponse(httpResponse) : httpResponse);
+    }
+    finally {
+      requestState.remove();
+    }
+  }
+
+  /**
+   * Serialize document on HTTP response output stream. If spool mode is enabled, document is rendered to a temporary
+   * file and sent with exact content length, see {@link DocumentSpool}.
+   *
+   * @throws BugError if view model is null.
+   */
+  @Override
+  protected void serialize(OutputStream outputStream) throws IOException
+  {
+    if(model == null) {
+      throw new BugError("Missing model for %s view |%s|.", formatName, meta.getName());
+    }
+    // request state is missing if super-class serialization is invoked directly, bypassing this view entry point
+    RequestState state = requestState.get();
+    if(state == null) {
+      state = new RequestState(null, 0, null);
+    }
+    if(state.spoolResponse != null) {
+      try (DocumentSpool spool = new DocumentSpool(meta)) {
+        render(spool.getOutputStream(), state.cacheKey, state.lastModified);
+        spool.transfer(state.spoolResponse, outputStream);
+      }
+      return;
+    }
+    render(outputStream, state.cacheKey, state.lastModified);
+  }
+
+  /**
+   * Configure user agent for output format specific options. This hook is invoked after user agent was initialized
+   * from render profile and before output control setup. Default implementation does nothing.
+   *
+   * @param agent user agent,
+   * @param profile view render profile.
+   */
+  protected void configure(FOUserAgent agent, RenderProfile profile)
+  {
+  }
+
+  /**
+   * Get render cache for this view, null if render cache is not enabled. Default implementation returns render cache
+   * enabled from view meta, see {@link RenderCache#getInstance(Class, com.jslib.container.mvc.ViewMeta)}.
+   *
+   * @return view render cache, possible null.
+   */
+  protected RenderCache getRenderCache()
+  {
+    return RenderCache.getInstance(getClass(), meta);
+  }
+
+  /**
+   * Get output control for this view. Default implementation returns output control configured from view meta.
+   *
+   * @param profile view render profile.
+   * @return output control.
+   */
+  protected OutputControl getOutputControl(RenderProfile profile)
+  {
+    return profile.getOutputControl();
+  }
+
+  /**
+   * Render document on given output stream.
+   *
+   * @param outputStream output stream, either HTTP response or spool file,
+   * @param cacheKey render cache key, null if render cache is not enabled,
+   * @param lastModified last modified time sent on response, stored with rendered document on render cache.
+   * @throws IOException if rendering fails.
+   */
+  private void render(OutputStream outputStream, String cacheKey, long lastModified) throws IOException
+  {
+    // view meta properties are parsed and validated once per view meta, see RenderProfile
+    RenderProfile profile = RenderProfile.getInstance(meta);
+
+    // rendering is aborted when client disconnects, render deadline passes or thread is interrupted, see
+    // RenderCancellation
+    RenderCancellation cancellation = new RenderCancellation(profile.getRenderTimeout());
+
+    // output buffer size, document size and pages limits, pages flushing, see OutputControl
+    OutputControl outputControl = getOutputControl(profile);
+    outputStream = outputControl.buffer(outputStream);
+
+    RenderCache.Capture capture = null;
+    if(cacheKey != null) {
+      RenderCache renderCache = getRenderCache();
+      if(renderCache.copy(cacheKey, outputStream)) {
+        log.debug("Serve {} document from render cache.", formatName);
+        outputStream.flush();
+        return;
+      }
+      // collect rendered document bytes while writing them to output stream; commit to cache only on success
+      capture = renderCache.capture(cacheKey, lastModified, outputStream);
+      outputStream = capture;
+    }
+
+    // this method algorithm may seem rather brute force and in a sense it is
+    // it loads template file into DOM, uses templates engine to serialize it to a string using a string writer and pass
+    // resulting FO string to XML transformer via a string reader
+    // anyway, profiling reveals that template processing is only couple percents from total processing time
+    // and resulting string is comparable with a small image - a single page template has around 10KB; of course
+    // rendering a
+    // document with many pages is another story...
+
+    // for documents with many pages enable 'streaming' view property: templates engine serialization is conducted on
+    // demand, by chunks, see TemplateReader; FOP consumes chunks as they are produced and FO string is not created
+
+    // on concatenate mode model is a collection and template is serialized for every collection item
+    boolean streaming = profile.isStreaming();
+    boolean concatenate = profile.isConcatenate();
+
+    // on render worker mode FO document is laid out and rendered by a worker process, see RenderWorkerPool; concatenate
+    // and lazy rows modes need view model at layout and are always rendered locally
+    RenderWorkerPool workerPool = concatenate || profile.isLazyRows() ? null : RenderWorkerPool.getInstance(meta);
+
+    // set base URL for resource files, e.g. images, to directory where .fo template resides
+    // FOP factory is expensive to create and is reused for all views sharing the same templates directory
+    // and FOP configuration; views may declare their own configuration file or explicit fonts, see FontConfig
+    FopFactory fopFactory = workerPool == null ? FopFactoryRegistry.getFopFactory(meta) : null;
+
+    // user agent is configured before intermediate format cache lookup since its settings are part of layout
+    FOUserAgent agent = null;
+    if(fopFactory != null) {
+      agent = fopFactory.newFOUserAgent();
+      profile.configure(agent);
+      configure(agent, profile);
+    }
+
+    // document laid out once to FOP intermediate format is rendered again with no template serialization, FO parsing
+    // and layout, see IntermediateCache; output formats not rendered through intermediate format, e.g. RTF, are excluded
+    IntermediateCache intermediateCache = fopFactory == null || concatenate || profile.isLazyRows() ? null : IntermediateCache.getInstance(meta);
+    if(intermediateCache != null && !IntermediateCache.isSupported(fopFactory, mimeType)) {
+      intermediateCache = null;
+    }
+    String intermediateKey = intermediateCache != null ? intermediateCache.getKey(fopFactory, agent, meta.getTemplateFile(), model) : null;
+    byte[] intermediateDocument = intermediateKey != null ? intermediateCache.get(intermediateKey) : null;
+
+    long start = System.nanoTime();
+    long templateLoadNanos = 0;
+    long templateSerializeNanos = 0;
+
+    // on streaming mode template is serialized on the fly, while FOP consumes serialized characters; FO document is
+    // never entirely loaded in memory but it is not available to be dumped on error
+    String templateFO = null;
+    Reader templateReader = null;
+
+    // count bytes written by FO processor for render metrics, see RenderMetrics
+    CountingOutputStream countingStream = new CountingOutputStream(outputControl.limit(cancellation.monitor(outputStream)));
+    int pageCount;
+
+    // template loading and serialization failures are reported to render metrics, as any rendering failure
+    try {
+      // parsed templates are cached; template file is loaded from disk only first time or if modified
+      Template template = TemplateCache.instance().getTemplate(meta.getTemplateFile());
+      templateLoadNanos = System.nanoTime() - start;
+
+      if(intermediateDocument != null) {
+        log.info("{} template loading last {processing_time} msec. Document layout is served from intermediate format cache.", formatName, templateLoadNanos / 1000000);
+      }
+      else if(concatenate) {
+        log.info("{} template loading last {processing_time} msec. Template is serialized for every model item.", formatName, templateLoadNanos / 1000000);
+      }
+      else if(streaming) {
+        templateReader = new TemplateReader(template, model);
+        log.info("{} template loading last {processing_time} msec. Template serialization is streamed.", formatName, templateLoadNanos / 1000000);
+      }
+      else {
+        templateFO = template.serialize(model);
+        templateSerializeNanos = System.nanoTime() - start - templateLoadNanos;
+        templateReader = new StringReader(templateFO);
+        log.info("{} template loading and serialization to string last {processing_time} msec. Resulting string size is {template_size} bytes.", formatName,
+            (templateLoadNanos + templateSerializeNanos) / 1000000, templateFO.length());
+      }
+      start = System.nanoTime();
+
+      // render may be cancelled before start, e.g. deadline passed while template was serialized
+      cancellation.check();
+      if(workerPool != null) {
+        pageCount = workerPool.render(meta, getClass(), mimeType, templateReader, countingStream);
+      }
+      else {
+        outputControl.configure(fopFactory, agent, mimeType, countingStream);
+
+        if(intermediateKey != null) {
+          if(intermediateDocument == null) {
+            intermediateDocument = intermediateCache.layout(fopFactory, agent, templateReader, intermediateKey, cancellation::filter);
+          }
+          pageCount = IntermediateCache.render(fopFactory, mimeType, agent, intermediateDocument, countingStream);
+        }
+        else if(concatenate) {
+          pageCount = FoRenderer.getPageCount(FoConcatenator.render(fopFactory, mimeType, agent, template, FoConcatenator.models(model), streaming, countingStream, cancellation::filter));
+        }
+        else {
+          // table rows bound to lazy row sources are expanded while FO document is parsed, see TableRowStreamer
+          UnaryOperator<ContentHandler> filter = profile.isLazyRows() ? handler -> new TableRowStreamer(cancellation.filter(handler), model) : cancellation::filter;
+          pageCount = FoRenderer.getPageCount(FoRenderer.render(fopFactory, mimeType, agent, templateReader, countingStream, filter));
+        }
+      }
+
+      // very important to flush output stream otherwise generated document may be incomplete, therefore invalid
+      // behavior depend on content size and sometimes could generate valid document
+      // flush goes through cancellation monitor so that client disconnected on final flush cancels render
+      countingStream.flush();
+    }
+    catch(Exception e) {
+      if(cancellation.isCancelled()) {
+        // cancelled render is not a failure; template FO is not dumped
+        log.warn("{} rendering for view |{}| cancelled: {}", formatName, meta.getName(), cancellation.getException().getMessage());
+        RenderMetrics.fireRender(new RenderEvent(meta.getName(), mimeType, templateLoadNanos, templateSerializeNanos, System.nanoTime() - start, countingStream.getCount(), 0, cancellation.getException()));
+        throw cancellation.getException();
+      }
+      log.error("Fail to generate {} document. Stack trace follows. Dump on template FO on system error output, if not streamed.", formatName);
+      log.dump(e.getMessage(), e);
+      if(templateFO != null) {
+        System.err.println(templateFO);
+      }
+      RenderMetrics.fireRender(new RenderEvent(meta.getName(), mimeType, templateLoadNanos, templateSerializeNanos, System.nanoTime() - start, countingStream.getCount(), 0, e));
+      throw new IOException(e);
+    }
+    finally {
+      if(templateReader != null) {
+        templateReader.close();
+      }
+      // model row sources not reached by rendering, e.g. on failure before rows element, are still open
+      if(profile.isLazyRows()) {
+        TableRowStreamer.closeSources(model);
+      }
+    }
+
+    if(capture != null) {
+      capture.commit();
+    }
+    long renderNanos = System.nanoTime() - start;
+    RenderMetrics.fireRender(new RenderEvent(meta.getName(), mimeType, templateLoadNanos, templateSerializeNanos, renderNanos, countingStream.getCount(), pageCount, null));
+    log.info("{} transformation processing last {processing_time} msec.", formatName, renderNanos / 1000000);
+  }
+
+  /**
+   * State of the request being serialized, confined to serializing thread.
+   *
+   * @author Iulian Rotaru
+   */
+  private static final class RequestState
+  {
+    /** Render cache key, null if render cache is not enabled for the view. */
+    final String cacheKey;
+
+    /** Last modified time sent on response, meaningless if render cache is not enabled for the view. */
+    final long lastModified;
+
+    /** HTTP response for spooled document content length, null if spool mode is not enabled for the view. */
+    final HttpServletResponse spoolResponse;
+
+    RequestState(String cacheKey, long lastModified, HttpServletResponse spoolResponse)
+    {
+      this.cacheKey = cacheKey;
+      this.lastModified = lastModified;
+      this.spoolResponse = spoolResponse;
+    }
+  }
+
+  /**
+   * HTTP response for documents with entity tag. Replaces caching headers set by super-class, that forbid client to
+   * store the document, with <code>private, no-cache</code>: client keeps the document and revalidates it on every
+   * request, with <code>If-None-Match</code> precondition.
+   *
+   * @author Iulian Rotaru
+   */
+  private static final class RevalidatedResponse extends HttpServletResponseWrapper
+  {
+    RevalidatedResponse(HttpServletResponse httpResponse)
+    {
+      super(httpResponse);
+    }
+
+    @Override
+    public void setHeader(String header, String value)
+    {
+      if("Cache-Control".equalsIgnoreCase(header)) {
+        super.setHeader(header, "private, no-cache");
+        return;
+      }
+      if(!"Pragma".equalsIgnoreCase(header)) {
+        super.setHeader(header, value);
+      }
+    }
+
+    @Override
+    public void addHeader(String header, String value)
+    {
+      if(!"Cache-Control".equalsIgnoreCase(header) && !"Pragma".equalsIgnoreCase(header)) {
+        super.addHeader(header, value);
+      }
+    }
+
+    @Override
+    public void setDateHeader(String header, long value)
+    {
+      if(!"Expires".equalsIgnoreCase(header)) {
+        super.setDateHeader(header, value);
+      }
+    }
+  }
+}
@@ -0,0 +1,202 @@
+package com.jslib.fop;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.apache.fop.apps.io.InternalResourceResolver;
+import org.apache.fop.apps.io.ResourceResolverFactory;
+import org.apache.fop.fonts.EmbedFontInfo;
+import org.apache.fop.fonts.FontCache;
+import org.apache.fop.fonts.FontEventListener;
+import org.apache.fop.fonts.FontTriplet;
+import org.apache.fop.fonts.autodetect.FontFileFinder;
+import org.apache.fop.fonts.autodetect.FontInfoFinder;
+
+import com.jslib.api.log.Log;
+import com.jslib.api.log.LogFactory;
+
+/**
+ * Precomputed fonts bundle. Fonts auto-detection scans system fonts directories and parses every font file; font cache
+ * avoids parsing but not the scan, and scan is executed on every JVM start, on first render. A fonts bundle is a FOP
+ * configuration file that declares all fonts explicitly, with font file and font triplets, so that auto-detection is not
+ * necessary anymore; font files are parsed lazily, only for fonts actually used by documents.
+ * <p>
+ * Fonts bundle is created at build time, on a machine with the same fonts as production, and shipped in the application
+ * jar as package resource {@link #RESOURCE}; if present on class path, bundle is used instead of the built-in
+ * configuration, see {@link FopFactoryRegistry#DEFAULT_CONFIG}.
+ *
+ * <pre>
+ * java -cp ... com.jslib.fop.FontBundle src/main/resources/com/jslib/fop/fop-fonts.xconf
+ * </pre>
+ *
+ * @author Iulian Rotaru
+ * @version draft
+ */
+public final class FontBundle
+{
+  /** Class logger. */
+  private static final Log log = LogFactory.getLog(FontBundle.class);
+
+  /** Fonts bundle package resource name. */
+  public static final String RESOURCE = "fop-fonts.xconf";
+
+  /** Prevent default constructor synthesis. */
+  private FontBundle()
+  {
+  }
+
+  /**
+   * Create fonts bundle file for fonts installed on current machine.
+   *
+   * @param args command line arguments, bundle file path.
+   * @throws IOException if fonts scanning or bundle writing fails.
+   */
+  public static void main(String... args) throws IOException
+  {
+    if(args.length != 1) {
+      System.err.println("Usage: java com.jslib.fop.FontBundle <bundle-file>");
+      System.exit(1);
+    }
+    export(new File(args[0]));
+  }
+
+  /**
+   * Scan system fonts directories and write FOP configuration file that declares explicitly all detected fonts.
+   *
+   * @param bundleFile fonts bundle file.
+   * @throws IOException if fonts scanning or bundle writing fails.
+   */
+  public static void export(File bundleFile) throws IOException
+  {
+    log.debug("Scan system fonts for bundle |{}|.", bundleFile);
+    FontEventListener listener = new LoggingFontEventListener();
+    List<URL> fontFiles = new FontFileFinder(listener).find();
+
+    InternalResourceResolver resolver = ResourceResolverFactory.createDefaultInternalResourceResolver(new File(".").toURI());
+    FontInfoFinder finder = new FontInfoFinder();
+    finder.setEventListener(listener);
+    FontCache fontCache = new FontCache();
+
+    File parentDir = bundleFile.getAbsoluteFile().getParentFile();
+    if(!parentDir.isDirectory() && !parentDir.mkdirs()) {
+      throw new IOException(String.format("Cannot create directory |%s|.", parentDir));
+    }
+
+    int fontsCount = 0;
+    try (Writer writer = Files.newBufferedWriter(bundleFile.toPath(), StandardCharsets.UTF_8)) {
+      writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+      writer.write("<!-- generated by com.jslib.fop.FontBundle; do not edit -->\n");
+      writer.write("<fop version=\"2.1\">\n");
+      writer.write("\t<use-cache>true</use-cache>\n");
+      writer.write("\t<renderers>\n");
+      writer.write("\t\t<renderer mime=\"application/pdf\">\n");
+      writer.write("\t\t\t<fonts>\n");
+      for(URL fontFile : fontFiles) {
+        EmbedFontInfo[] fontInfos;
+        try {
+          fontInfos = finder.find(fontFile.toURI(), resolver, fontCache);
+        }
+        catch(URISyntaxException e) {
+          log.warn("Invalid font file URL |{}|. Ignore it.", fontFile);
+          continue;
+        }
+        if(fontInfos == null) {
+          continue;
+        }
+        for(EmbedFontInfo fontInfo : fontInfos) {
+          writeFont(writer, fontInfo, null);
+          ++fontsCount;
+        }
+      }
+      writer.write("\t\t\t</fonts>\n");
+      writer.write("\t\t</renderer>\n");
+      writer.write("\t</renderers>\n");
+      writer.write("</fop>\n");
+    }
+    log.info("Write |{}| fonts to bundle |{}|.", fontsCount, bundleFile);
+  }
+
+  /**
+   * Write FOP configuration <code>font</code> element for given font info.
+   *
+   * @param writer configuration writer,
+   * @param fontInfo font info, as detected from font file,
+   * @param embeddingMode optional embedding mode, null for FOP default.
+   * @throws IOException if writing fails.
+   */
+  static void writeFont(Writer writer, EmbedFontInfo fontInfo, String embeddingMode) throws IOException
+  {
+    writer.write("\t\t\t\t<font embed-url=\"");
+    writer.write(escape(fontInfo.getEmbedURI().toString()));
+    writer.write("\" kerning=\"");
+    writer.write(fontInfo.getKerning() ? "yes" : "no");
+    writer.write('"');
+    if(embeddingMode != null) {
+      writer.write(" embedding-mode=\"");
+      writer.write(embeddingMode);
+      writer.write('"');
+    }
+    if(fontInfo.getSubFontName() != null) {
+      writer.write(" sub-font=\"");
+      writer.write(escape(fontInfo.getSubFontName()));
+      writer.write('"');
+    }
+    writer.write(">\n");
+    for(FontTriplet triplet : fontInfo.getFontTriplets()) {
+      writer.write("\t\t\t\t\t<font-triplet name=\"");
+      writer.write(escape(triplet.getName()));
+      writer.write("\" style=\"");
+      writer.write(escape(triplet.getStyle()));
+      writer.write("\" weight=\"");
+      writer.write(Integer.toString(triplet.getWeight()));
+      writer.write("\" />\n");
+    }
+    writer.write("\t\t\t\t</font>\n");
+  }
+
+  static String escape(String value)
+  {
+    return value.replace("&", "&amp;").replace("\"", "&quot;").replace("<", "&lt;");
+  }
+
+  /**
+   * Font event listener that logs fonts loading problems.
+   *
+   * @author Iulian Rotaru
+   */
+  static final class LoggingFontEventListener implements FontEventListener
+  {
+    @Override
+    public void fontSubstituted(Object source, FontTriplet requested, FontTriplet effective)
+    {
+    }
+
+    @Override
+    public void fontLoadingErrorAtAutoDetection(Object source, String fontURL, Exception e)
+    {
+      log.warn("Fail to load font |{}|: {}", fontURL, e);
+    }
+
+    @Override
+    public void glyphNotAvailable(Object source, char ch, String fontName)
+    {
+    }
+
+    @Override
+    public void fontDirectoryNotFound(Object source, String dir)
+    {
+      log.debug("Fonts directory |{}| not found.", dir);
+    }
+
+    @Override
+    public void svgTextStrokedAsShapes(Object source, String fontFamily)
+    {
+    }
+  }
+}
@@ -0,0 +1,161 @@
+package com.jslib.fop;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.fop.apps.io.InternalResourceResolver;
+import org.apache.fop.apps.io.ResourceResolverFactory;
+import org.apache.fop.fonts.EmbedFontInfo;
+import org.apache.fop.fonts.autodetect.FontInfoFinder;
+
+import com.jslib.container.mvc.ViewMeta;
+import com.jslib.lang.BugError;
+
+/**
+ * Explicit fonts configuration declared on view meta. Instead of system wide fonts auto-detection, only declared fonts
+ * are registered on FOP factory, which reduces factory creation time, fonts info memory and, since auto-detected fonts
+ * are not candidates for font selection, prevents unexpected fonts embedding.
+ * <p>
+ * Fonts are declared with view meta properties:
+ * <ul>
+ * <li>{@link #PROP_FONT_BASE} - optional base directory for font files, relative to template directory, default to
+ * template directory,
+ * <li>{@link #PROP_FONTS} - comma separated list of TTF, OTF or TTC font files, relative to font base,
+ * <li>{@link #PROP_FONT_DIRECTORY} - directory whose font files are all registered, relative to font base,
+ * <li>{@link #PROP_FONT_EMBEDDING} - font embedding policy: <code>subset</code>, <code>full</code>, <code>auto</code> or
+ * <code>none</code> for referenced, not embedded, fonts; default to {@link PdfProfile PDF profile} font embedding.
+ * </ul>
+ * Font families and styles are detected from font files so that templates refer fonts by their family name, e.g.
+ * <code>font-family="DejaVu Sans"</code>.
+ *
+ * @author Iulian Rotaru
+ * @version draft
+ */
+final class FontConfig
+{
+  static final String PROP_FONT_BASE = "font-base-url";
+  static final String PROP_FONTS = "fonts";
+  static final String PROP_FONT_DIRECTORY = "font-directory";
+  static final String PROP_FONT_EMBEDDING = "font-embedding";
+
+  /**
+   * Get explicit fonts configuration from view meta or null if view does not declare fonts, in which case default FOP
+   * configuration is used.
+   *
+   * @param meta view meta,
+   * @param templateDir template directory.
+   * @return explicit fonts configuration, possible null.
+   * @throws BugError if font embedding policy is not recognized.
+   */
+  public static FontConfig getInstance(ViewMeta meta, File templateDir)
+  {
+    if(!meta.hasProperty(PROP_FONTS) && !meta.hasProperty(PROP_FONT_DIRECTORY)) {
+      return null;
+    }
+    File fontBase = meta.hasProperty(PROP_FONT_BASE) ? resolve(templateDir, meta.getProperty(PROP_FONT_BASE)) : templateDir;
+    String[] fonts = meta.hasProperty(PROP_FONTS) ? meta.getProperty(PROP_FONTS).split("\\s*,\\s*") : new String[0];
+    File fontDirectory = meta.hasProperty(PROP_FONT_DIRECTORY) ? resolve(fontBase, meta.getProperty(PROP_FONT_DIRECTORY)) : null;
+    String embedding = meta.hasProperty(PROP_FONT_EMBEDDING) ? meta.getProperty(PROP_FONT_EMBEDDING) : PdfProfile.getInstance(meta).getFontEmbedding();
+    switch(embedding) {
+    case "subset":
+    case "full":
+    case "auto":
+    case "none":
+      break;
+
+    default:
+      throw new BugError("Invalid font embedding |%s| for view |%s|.", embedding, meta.getName());
+    }
+    return new FontConfig(fontBase, fonts, fontDirectory, embedding);
+  }
+
+  private static File resolve(File baseDir, String path)
+  {
+    return baseDir.toPath().resolve(path).toFile();
+  }
+
+  private final File fontBase;
+  private final String[] fonts;
+  private final File fontDirectory;
+  private final String embedding;
+
+  private FontConfig(File fontBase, String[] fonts, File fontDirectory, String embedding)
+  {
+    this.fontBase = fontBase;
+    this.fonts = fonts;
+    this.fontDirectory = fontDirectory;
+    this.embedding = embedding;
+  }
+
+  /**
+   * Get configuration identity, used as FOP factory registry key. Views declaring the same fonts share FOP factory.
+   *
+   * @return configuration identity.
+   */
+  public String getId()
+  {
+    StringBuilder id = new StringBuilder("fonts:");
+    id.append(fontBase.getAbsolutePath());
+    id.append(';').append(String.join(",", fonts));
+    id.append(';').append(fontDirectory != null ? fontDirectory.getAbsolutePath() : "");
+    id.append(';').append(embedding);
+    return id.toString();
+  }
+
+  /**
+   * Generate FOP configuration document. Declared font files are parsed in order to detect font triplets.
+   *
+   * @return FOP configuration document stream.
+   * @throws IOException if a declared font file is missing or cannot be parsed.
+   */
+  public InputStream open() throws IOException
+  {
+    InternalResourceResolver resolver = ResourceResolverFactory.createDefaultInternalResourceResolver(fontBase.toURI());
+    FontInfoFinder finder = new FontInfoFinder();
+    finder.setEventListener(new FontBundle.LoggingFontEventListener());
+    String embeddingMode = "none".equals(embedding) ? null : embedding;
+
+    StringWriter writer = new StringWriter();
+    writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    writer.write("<fop version=\"2.1\">\n");
+    // font cache is used only for directory scanning
+    writer.write(fontDirectory != null ? "\t<use-cache>true</use-cache>\n" : "\t<use-cache>false</use-cache>\n");
+    writer.write("\t<renderers>\n");
+    writer.write("\t\t<renderer mime=\"application/pdf\">\n");
+    writer.write("\t\t\t<fonts>\n");
+    for(String font : fonts) {
+      File fontFile = resolve(fontBase, font);
+      if(!fontFile.isFile()) {
+        throw new IOException(String.format("Missing font file |%s|.", fontFile));
+      }
+      URI fontURI = fontFile.toURI();
+      EmbedFontInfo[] fontInfos = finder.find(fontURI, resolver, null);
+      if(fontInfos == null) {
+        throw new IOException(String.format("Cannot load font file |%s|.", fontFile));
+      }
+      for(EmbedFontInfo fontInfo : fontInfos) {
+        FontBundle.writeFont(writer, fontInfo, embeddingMode);
+      }
+    }
+    if(fontDirectory != null) {
+      writer.write("\t\t\t\t<directory recursive=\"true\">");
+      writer.write(FontBundle.escape(fontDirectory.getAbsolutePath()));
+      writer.write("</directory>\n");
+    }
+    if("none".equals(embedding)) {
+      writer.write("\t\t\t\t<referenced-fonts>\n");
+      writer.write("\t\t\t\t\t<match font-family=\".*\" />\n");
+      writer.write("\t\t\t\t</referenced-fonts>\n");
+    }
+    writer.write("\t\t\t</fonts>\n");
+    writer.write("\t\t</renderer>\n");
+    writer.write("\t</renderers>\n");
+    writer.write("</fop>\n");
+    return new ByteArrayInputStream(writer.toString().getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,417 @@
+package com.jslib.fop;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.fop.apps.FopConfParser;
+import org.apache.fop.apps.FopFactory;
+import org.apache.fop.apps.FopFactoryBuilder;
+import org.apache.fop.apps.MimeConstants;
+import org.apache.xmlgraphics.image.loader.cache.ImageCache;
+import org.xml.sax.SAXException;
+
+import com.jslib.api.log.Log;
+import com.jslib.api.log.LogFactory;
+import com.jslib.container.mvc.ViewMeta;
+import com.jslib.lang.BugError;
+import com.jslib.util.Classes;
+
+/**
+ * Process wide registry for Apache FOP factories. FOP factory creation is expensive: it parses configuration file and
+ * runs fonts auto-detection. Also, excerpt from API: it's important to reuse factory instance if you plan to render
+ * multiple documents during a JVM's lifetime. Since views are created per request, factories cannot be stored on view
+ * instances; instead they are cached by this registry, keyed by configuration resource and resources base URI, so that
+ * factory is built only once per templates directory.
+ * <p>
+ * Registry is thread safe and factory instances are safely published to all threads. A factory is built outside
+ * registry map, on the thread that first requested it, while concurrent requests for the same key wait for it; requests
+ * for other keys are not blocked. Factory creation can be triggered eagerly, at container start, using
+ * {@link #warmUp(File...)}.
+ * <p>
+ * Fonts auto-detection results are kept on FOP font cache file, by default on user home directory. Font cache location
+ * can be changed with {@link #PROP_FONT_CACHE} system property, e.g. to a directory persisted across deployments. For
+ * no fonts scanning at all, ship a {@link FontBundle fonts bundle} with the application.
+ * <p>
+ * Views can replace default configuration with a configuration file of their own, see {@link #PROP_FOP_CONFIG}, or can
+ * declare explicitly the fonts to register, see {@link FontConfig}.
+ * <p>
+ * All factories load local resource files, e.g. images, through a shared {@link ResourceCache resource cache}.
+ *
+ * @author Iulian Rotaru
+ * @version draft
+ */
+public final class FopFactoryRegistry
+{
+  /** Class logger. */
+  private static final Log log = LogFactory.getLog(FopFactoryRegistry.class);
+
+  /** Optional view meta property for FOP configuration file, relative to template directory. */
+  static final String PROP_FOP_CONFIG = "fop-config";
+
+  /** System property for persistent font cache file location. */
+  static final String PROP_FONT_CACHE = "com.jslib.fop.font-cache-file";
+
+  /**
+   * Default FOP factory configuration, package resource file. If {@link FontBundle fonts bundle} is present on class
+   * path it is used instead of built-in configuration.
+   */
+  static final String DEFAULT_CONFIG = defaultConfig();
+
+  /** Minimal FO document rendered by warm-up in order to complete fonts setup and load layout classes. */
+  private static final String WARM_UP_FO = "<fo:root xmlns:fo='http://www.w3.org/1999/XSL/Format'>" + //
+      "<fo:layout-master-set><fo:simple-page-master master-name='page'><fo:region-body /></fo:simple-page-master></fo:layout-master-set>" + //
+      "<fo:page-sequence master-reference='page'><fo:flow flow-name='xsl-region-body'><fo:block>warm-up</fo:block></fo:flow></fo:page-sequence>" + //
+      "</fo:root>";
+
+  /** Cached FOP factories, as tasks completed by the thread that created them. */
+  private static final Map<Key, FutureTask<FopFactory>> factories = new ConcurrentHashMap<>();
+
+  /** Identities assigned to cached FOP factories, in creation order. */
+  private static final Map<FopFactory, Integer> factoryIds = new ConcurrentHashMap<>();
+
+  /** Last assigned FOP factory identity. */
+  private static final AtomicInteger factoryIdSequence = new AtomicInteger();
+
+  /** Number of factory requests served from cache. */
+  private static final LongAdder hits = new LongAdder();
+
+  /** Number of factory requests that triggered factory creation. */
+  private static final LongAdder misses = new LongAdder();
+
+  /** Prevent default constructor synthesis. */
+  private FopFactoryRegistry()
+  {
+  }
+
+  /**
+   * Eagerly create FOP factories, with default configuration, for given templates directories. Intended to be invoked
+   * at container start in order to avoid factory creation on first request.
+   * <p>
+   * FOP runs fonts setup - and auto-detection, if configured - on first document rendering, not on factory creation;
+   * for this reason a minimal PDF document is rendered for every factory. Font cache is updated as side effect.
+   *
+   * @param templatesDirs templates directories used as resources base path.
+   * @throws IOException if FOP configuration parsing or warm-up rendering fails.
+   */
+  public static void warmUp(File... templatesDirs) throws IOException
+  {
+    for(File templatesDir : templatesDirs) {
+      long start = System.nanoTime();
+      FopFactory fopFactory = getFopFactory(DEFAULT_CONFIG, templatesDir.toURI());
+      FoRenderer.render(fopFactory, MimeConstants.MIME_PDF, fopFactory.newFOUserAgent(), new StringReader(WARM_UP_FO), OutputStream.nullOutputStream());
+      log.info("FOP warm-up for |{}| last {processing_time} msec.", templatesDir, (System.nanoTime() - start) / 1000000);
+    }
+  }
+
+  /**
+   * Get identity assigned by this registry to given FOP factory. Identity is stable for factory lifetime and is never
+   * reused by another factory, so that it can be part of cache keys for documents laid out by the factory.
+   *
+   * @param fopFactory FOP factory created by this registry.
+   * @return FOP factory identity.
+   * @throws BugError if FOP factory was not created by this registry.
+   */
+  static int getFactoryId(FopFactory fopFactory)
+  {
+    Integer factoryId = factoryIds.get(fopFactory);
+    if(factoryId == null) {
+      throw new BugError("FOP factory |%s| not created by registry.", fopFactory);
+    }
+    return factoryId;
+  }
+
+  /**
+   * Get the number of factory requests served from cache.
+   *
+   * @return cache hits count.
+   */
+  public static long getHitCount()
+  {
+    return hits.sum();
+  }
+
+  /**
+   * Get the number of factory requests that triggered factory creation.
+   *
+   * @return cache misses count.
+   */
+  public static long getMissCount()
+  {
+    return misses.sum();
+  }
+
+  /**
+   * Get FOP factory for view described by given meta. Factory settings are resolved once per view meta, see
+   * {@link #getFactoryConfig(ViewMeta, PdfProfile)}, and kept by view {@link RenderProfile}.
+   *
+   * @param meta view meta.
+   * @return FOP factory instance.
+   * @throws IOException if FOP configuration loading or parsing fails.
+   */
+  static FopFactory getFopFactory(ViewMeta meta) throws IOException
+  {
+    FactoryConfig factoryConfig = RenderProfile.getInstance(meta).getFactoryConfig();
+    FopFactory fopFactory = getFopFactory(factoryConfig.key, factoryConfig.configSource);
+    // images are preloaded once per view meta; resource cache skips images already preloaded by other views
+    if(factoryConfig.preloadImages != null && factoryConfig.imagesPreloaded.compareAndSet(false, true)) {
+      ResourceCache.instance().preloadImages(fopFactory, factoryConfig.key.toString(), factoryConfig.templateDir, factoryConfig.preloadImages);
+    }
+    return fopFactory;
+  }
+
+  /**
+   * Resolve FOP factory settings for view described by given meta. Factory configuration is, in this order, the
+   * configuration file declared by {@link #PROP_FOP_CONFIG}, explicit fonts configuration - see {@link FontConfig}, or
+   * default configuration resource, updated by {@link PdfProfile PDF profile}, if the case. Template directory is used
+   * as base URI for resource files.
+   *
+   * @param meta view meta,
+   * @param pdfProfile view PDF profile.
+   * @return FOP factory settings.
+   * @throws BugError if explicit fonts configuration is not valid.
+   */
+  static FactoryConfig getFactoryConfig(ViewMeta meta, PdfProfile pdfProfile)
+  {
+    File templateDir = meta.getTemplateFile().getParentFile();
+    URI baseURI = templateDir.toURI();
+
+    String config;
+    ConfigSource configSource;
+    FontConfig fontConfig = FontConfig.getInstance(meta, templateDir);
+    if(meta.hasProperty(PROP_FOP_CONFIG)) {
+      File configFile = templateDir.toPath().resolve(meta.getProperty(PROP_FOP_CONFIG)).toFile();
+      config = configFile.getAbsolutePath();
+      configSource = () -> Files.newInputStream(configFile.toPath());
+    }
+    else if(fontConfig != null) {
+      config = fontConfig.getId();
+      configSource = fontConfig::open;
+    }
+    else {
+      config = DEFAULT_CONFIG;
+      configSource = () -> Classes.getResourceAsStream(DEFAULT_CONFIG);
+    }
+
+    // PDF profile stream filters are part of FOP configuration, see PdfProfile
+    if(pdfProfile.isConfigurationChanged()) {
+      ConfigSource baseSource = configSource;
+      config += ";pdf-profile:" + pdfProfile.name();
+      configSource = () -> pdfProfile.configure(baseSource.open());
+    }
+    return new FactoryConfig(new Key(config, baseURI), configSource, templateDir, meta.getProperty(ResourceCache.PROP_PRELOAD_IMAGES));
+  }
+
+  /**
+   * Get FOP factory for given configuration resource and resources base URI, creating it on the fly if not already
+   * cached.
+   *
+   * @param config FOP configuration resource,
+   * @param baseURI base URI for resource files, e.g. images.
+   * @return FOP factory instance.
+   * @throws IOException if FOP configuration parsing fails.
+   */
+  static FopFactory getFopFactory(String config, URI baseURI) throws IOException
+  {
+    return getFopFactory(new Key(config, baseURI), () -> Classes.getResourceAsStream(config));
+  }
+
+  /**
+   * Get FOP factory for given registry key, creating it on the fly if not already cached.
+   *
+   * @param key registry key: FOP configuration identity and base URI for resource files, e.g. images,
+   * @param configSource FOP configuration document source, opened only if factory is created.
+   * @return FOP factory instance.
+   * @throws IOException if FOP configuration loading or parsing fails.
+   */
+  private static FopFactory getFopFactory(Key key, ConfigSource configSource) throws IOException
+  {
+    FutureTask<FopFactory> task = factories.get(key);
+    if(task == null) {
+      // factory is built outside map compute, so that configuration parsing and fonts setup do not lock map bins
+      FutureTask<FopFactory> newTask = new FutureTask<>(() -> {
+        FopFactory factory = createFopFactory(key.config, key.baseURI, configSource);
+        factoryIds.put(factory, factoryIdSequence.incrementAndGet());
+        return factory;
+      });
+      task = factories.putIfAbsent(key, newTask);
+      if(task == null) {
+        misses.increment();
+        task = newTask;
+        task.run();
+      }
+      else {
+        hits.increment();
+      }
+    }
+    else {
+      hits.increment();
+    }
+
+    try {
+      return task.get();
+    }
+    catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+    catch(ExecutionException e) {
+      // failed creation is not cached; next request tries again
+      factories.remove(key, task);
+      Throwable cause = e.getCause();
+      if(cause instanceof IOException) {
+        throw (IOException)cause;
+      }
+      if(cause instanceof RuntimeException) {
+        throw (RuntimeException)cause;
+      }
+      if(cause instanceof Error) {
+        throw (Error)cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  /**
+   * Create FOP factory instance. Configuration is loaded from given source and resources base URI is used to resolve
+   * relative resource files, e.g. images.
+   *
+   * @param config FOP configuration identity,
+   * @param baseURI base URI for resource files,
+   * @param configSource FOP configuration document source.
+   * @return newly created FOP factory.
+   * @throws IOException if FOP configuration loading or parsing fails.
+   */
+  private static FopFactory createFopFactory(String config, URI baseURI, ConfigSource configSource) throws IOException
+  {
+    log.debug("Create FOP factory for configuration |{}|.", config);
+    log.debug("Set resources base path to |{}|.", baseURI);
+    long start = System.nanoTime();
+
+    FopConfParser parser;
+    try (InputStream configStream = configSource.open()) {
+      parser = new FopConfParser(configStream, baseURI, new CachingResourceResolver());
+    }
+    catch(SAXException e) {
+      log.error(e);
+      throw new IOException(e);
+    }
+    FopFactoryBuilder builder = parser.getFopFactoryBuilder();
+    builder.setStrictUserConfigValidation(true);
+    builder.setStrictFOValidation(false);
+
+    FopFactory fopFactory = builder.build();
+    ImageCache imageCache = fopFactory.getImageManager().getCache();
+    imageCache.setCacheListener(ResourceCache.instance().getImageCacheListener(imageCache, baseURI));
+    String fontCache = System.getProperty(PROP_FONT_CACHE);
+    if(fontCache != null) {
+      log.debug("Set font cache file to |{}|.", fontCache);
+      fopFactory.getFontManager().setCacheFile(new File(fontCache).toURI());
+    }
+    RenderMetrics.fireFactoryCreated(config, baseURI, System.nanoTime() - start);
+    return fopFactory;
+  }
+
+  /**
+   * Get default FOP configuration resource: fonts bundle, if present on class path, otherwise built-in configuration.
+   *
+   * @return default FOP configuration resource.
+   */
+  private static String defaultConfig()
+  {
+    String bundle = Classes.getPackageResource(FopFactoryRegistry.class, FontBundle.RESOURCE);
+    if(FopFactoryRegistry.class.getClassLoader().getResource(bundle) != null) {
+      log.debug("Use fonts bundle |{}|.", bundle);
+      return bundle;
+    }
+    return Classes.getPackageResource(FopFactoryRegistry.class, "fop.xconf");
+  }
+
+  /**
+   * Source for FOP configuration document.
+   *
+   * @author Iulian Rotaru
+   */
+  @FunctionalInterface
+  private interface ConfigSource
+  {
+    InputStream open() throws IOException;
+  }
+
+  /**
+   * FOP factory settings resolved from view meta: registry key, configuration source and images to preload.
+   *
+   * @author Iulian Rotaru
+   */
+  static final class FactoryConfig
+  {
+    private final Key key;
+    private final ConfigSource configSource;
+    private final File templateDir;
+    /** Comma separated images to preload, relative to template directory, null if none. */
+    private final String preloadImages;
+    private final AtomicBoolean imagesPreloaded = new AtomicBoolean();
+
+    private FactoryConfig(Key key, ConfigSource configSource, File templateDir, String preloadImages)
+    {
+      this.key = key;
+      this.configSource = configSource;
+      this.templateDir = templateDir;
+      this.preloadImages = preloadImages;
+    }
+  }
+
+  /**
+   * Registry key composed from FOP configuration resource and resources base URI.
+   *
+   * @author Iulian Rotaru
+   */
+  private static final class Key
+  {
+    final String config;
+    final URI baseURI;
+
+    Key(String config, URI baseURI)
+    {
+      this.config = config;
+      this.baseURI = baseURI;
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return 31 * config.hashCode() + baseURI.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+      if(this == obj) {
+        return true;
+      }
+      if(!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key)obj;
+      return config.equals(other.config) && baseURI.equals(other.baseURI);
+    }
+
+    @Override
+    public String toString()
+    {
+      return config + '|' + baseURI;
+    }
+  }
+}
@@ -0,0 +1,313 @@
+package com.jslib.fop;
+
+import java.awt.Dimension;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.fop.apps.FOPException;
+import org.apache.fop.apps.FOUserAgent;
+import org.apache.fop.apps.FopFactory;
+import org.apache.fop.apps.MimeConstants;
+import org.apache.fop.render.intermediate.IFContext;
+import org.apache.fop.render.intermediate.IFDocumentHandler;
+import org.apache.fop.render.intermediate.IFException;
+import org.apache.fop.render.intermediate.IFParser;
+import org.apache.fop.render.intermediate.IFSerializer;
+import org.apache.fop.render.intermediate.IFUtil;
+import org.apache.fop.render.intermediate.util.IFDocumentHandlerProxy;
+import org.xml.sax.ContentHandler;
+
+import com.jslib.api.log.Log;
+import com.jslib.api.log.LogFactory;
+import com.jslib.container.mvc.ViewMeta;
+
+/**
+ * Bounded cache for documents laid out to FOP intermediate format, shared by all views. Layout is the most expensive
+ * rendering step; intermediate format captures the laid out pages so that a document can be produced again, in any
+ * output format rendered through intermediate format - e.g. PDF, PostScript, PCL, AFP or PNG, with no template
+ * serialization, FO parsing and layout. Reprints and format switches only parse intermediate format and run output
+ * renderer.
+ * <p>
+ * Intermediate format documents are keyed by template file, template file modification time, model fingerprint, see
+ * {@link RenderCache#getKey(File, String, Object)}, FOP factory and user agent settings that change layout - target
+ * resolution and accessibility; layout uses PDF fonts metrics since FOP factory fonts are configured for PDF. When
+ * cache size limit is reached least recently used documents are evicted; documents larger than a quarter of cache size
+ * are not cached at all.
+ * <p>
+ * Output formats with FO event handler, e.g. RTF, are not laid out by FOP and do not support intermediate format; plain
+ * text is laid out but rendered by a legacy area tree renderer and does not support it either.
+ * <p>
+ * Intermediate format cache is enabled per view from {@link #PROP_IF_CACHE} view meta property, default to false.
+ * Cache size is configured from {@link #PROP_SIZE} system property, in bytes, default to {@link #DEFAULT_SIZE}.
+ *
+ * @author Iulian Rotaru
+ * @version draft
+ */
+final class IntermediateCache
+{
+  /** Class logger. */
+  private static final Log log = LogFactory.getLog(IntermediateCache.class);
+
+  /** System property for intermediate format cache size, in bytes. */
+  static final String PROP_SIZE = "com.jslib.fop.if-cache-size";
+
+  /** Optional view meta flag that enables intermediate format cache. */
+  static final String PROP_IF_CACHE = "if-cache";
+
+  /** Default intermediate format cache size. */
+  static final long DEFAULT_SIZE = 64 * 1024 * 1024;
+
+  /** Intermediate format cache instance shared by all views. */
+  private static final IntermediateCache instance = new IntermediateCache(Long.getLong(PROP_SIZE, DEFAULT_SIZE));
+
+  /**
+   * Get intermediate format cache instance shared by all views.
+   *
+   * @return shared intermediate format cache.
+   */
+  public static IntermediateCache instance()
+  {
+    return instance;
+  }
+
+  /**
+   * Get intermediate format cache if enabled for view described by given meta.
+   *
+   * @param meta view meta.
+   * @return shared intermediate format cache or null if not enabled for the view.
+   */
+  public static IntermediateCache getInstance(ViewMeta meta)
+  {
+    return Boolean.parseBoolean(meta.getProperty(PROP_IF_CACHE)) ? instance : null;
+  }
+
+  /**
+   * Test if output format is rendered through intermediate format, that is, if it has an intermediate format document
+   * handler. Output formats with FO event handler, e.g. RTF, or with legacy area tree renderer, e.g. plain text, are
+   * not.
+   *
+   * @param fopFactory FOP factory,
+   * @param mimeType output format MIME type.
+   * @return true if output format supports intermediate format.
+   */
+  public static boolean isSupported(FopFactory fopFactory, String mimeType)
+  {
+    return fopFactory.getRendererFactory().getDocumentHandlerMaker(mimeType) != null;
+  }
+
+  /** Maximum size of cached documents, in bytes. */
+  private final long maxSize;
+
+  /** Cache entries in access order, least recently used first. Guarded by this cache instance. */
+  private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(16, 0.75F, true);
+
+  /** Current size of cached documents. Guarded by this cache instance. */
+  private long size;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  IntermediateCache(long maxSize)
+  {
+    log.debug("Create intermediate format cache with size |{}|.", maxSize);
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Create cache key for document laid out by given FOP factory and user agent from template and model. Returns null if
+   * model cannot be serialized to JSON, in which case intermediate format document is not cached.
+   *
+   * @param fopFactory FOP factory created by {@link FopFactoryRegistry},
+   * @param agent user agent configured for output format,
+   * @param templateFile template file,
+   * @param model model used to inject dynamic content into template.
+   * @return cache key or null.
+   */
+  public String getKey(FopFactory fopFactory, FOUserAgent agent, File templateFile, Object model)
+  {
+    String key = RenderCache.getKey(templateFile, MimeConstants.MIME_FOP_IF, model);
+    if(key == null) {
+      return null;
+    }
+    // layout agent copies target resolution and accessibility from output format agent
+    return key + '@' + FopFactoryRegistry.getFactoryId(fopFactory) + '@' + agent.getTargetResolution() + (agent.isAccessibilityEnabled() ? "@accessibility" : "");
+  }
+
+  /**
+   * Get cached intermediate format document or null if not cached.
+   *
+   * @param key cache key.
+   * @return intermediate format document, possible null.
+   */
+  public synchronized byte[] get(String key)
+  {
+    byte[] document = entries.get(key);
+    if(document != null) {
+      hits.increment();
+    }
+    else {
+      misses.increment();
+    }
+    return document;
+  }
+
+  /**
+   * Lay out FO document to intermediate format and store it on cache. Layout uses a user agent of its own, with the
+   * same target resolution as given agent.
+   *
+   * @param fopFactory FOP factory,
+   * @param agent user agent configured for output format,
+   * @param foReader serialized FO document,
+   * @param key cache key,
+   * @param filter content handler filter for FO parsing events, null if not used.
+   * @return intermediate format document.
+   * @throws IOException if layout fails.
+   */
+  public byte[] layout(FopFactory fopFactory, FOUserAgent agent, Reader foReader, String key, UnaryOperator<ContentHandler> filter) throws IOException
+  {
+    FOUserAgent layoutAgent = fopFactory.newFOUserAgent();
+    layoutAgent.setTargetResolution(agent.getTargetResolution());
+    layoutAgent.setAccessibility(agent.isAccessibilityEnabled());
+
+    ByteArrayOutputStream document = new ByteArrayOutputStream();
+    try {
+      // intermediate format serializer should use the same fonts metrics as final output renderer
+      IFSerializer serializer = new IFSerializer(new IFContext(layoutAgent));
+      serializer.mimicDocumentHandler(fopFactory.getRendererFactory().createDocumentHandler(layoutAgent, MimeConstants.MIME_PDF));
+      layoutAgent.setDocumentHandlerOverride(serializer);
+    }
+    catch(FOPException e) {
+      throw new IOException(e);
+    }
+    FoRenderer.render(fopFactory, MimeConstants.MIME_FOP_IF, layoutAgent, foReader, document, filter);
+
+    byte[] bytes = document.toByteArray();
+    put(key, bytes);
+    return bytes;
+  }
+
+  /**
+   * Render intermediate format document to requested output format. Document handler override from user agent, if
+   * any, is used as output renderer.
+   *
+   * @param fopFactory FOP factory,
+   * @param mimeType output format MIME type,
+   * @param agent user agent, configured by caller,
+   * @param document intermediate format document,
+   * @param outputStream output stream for rendered document.
+   * @return rendered pages count.
+   * @throws IOException if rendering fails.
+   */
+  public static int render(FopFactory fopFactory, String mimeType, FOUserAgent agent, byte[] document, OutputStream outputStream) throws IOException
+  {
+    PageCounter pageCounter;
+    try {
+      IFDocumentHandler documentHandler = fopFactory.getRendererFactory().createDocumentHandler(agent, mimeType);
+      documentHandler.setResult(new StreamResult(outputStream));
+      IFUtil.setupFonts(documentHandler);
+      pageCounter = new PageCounter(documentHandler);
+    }
+    catch(FOPException | IFException e) {
+      throw new IOException(e);
+    }
+
+    try {
+      IFParser parser = new IFParser();
+      SAXResult destination = new SAXResult(parser.getContentHandler(pageCounter, agent));
+      Transformers.transform(new StreamSource(new ByteArrayInputStream(document)), destination);
+      return pageCounter.pageCount;
+    }
+    catch(TransformerException e) {
+      // rendering stopped after last page from page range is not an error, see OutputControl
+      if(OutputControl.isPageRangeComplete(e)) {
+        return pageCounter.pageCount;
+      }
+      throw new IOException(e);
+    }
+    catch(RuntimeException e) {
+      if(OutputControl.isPageRangeComplete(e)) {
+        return pageCounter.pageCount;
+      }
+      // document handler failures, e.g. pages limit, are reported as runtime exceptions
+      if(e.getCause() instanceof IFException) {
+        throw new IOException(e.getCause());
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Get the number of documents served from cache.
+   *
+   * @return cache hits count.
+   */
+  public long getHitCount()
+  {
+    return hits.sum();
+  }
+
+  /**
+   * Get the number of documents not found on cache.
+   *
+   * @return cache misses count.
+   */
+  public long getMissCount()
+  {
+    return misses.sum();
+  }
+
+  private synchronized void put(String key, byte[] document)
+  {
+    if(document.length > maxSize / 4) {
+      log.debug("Intermediate format document exceeds cache entry limit. Do not cache it.");
+      return;
+    }
+    byte[] previous = entries.put(key, document);
+    if(previous != null) {
+      size -= previous.length;
+    }
+    size += document.length;
+
+    Iterator<Map.Entry<String, byte[]>> iterator = entries.entrySet().iterator();
+    while(size > maxSize && iterator.hasNext()) {
+      size -= iterator.next().getValue().length;
+      iterator.remove();
+    }
+  }
+
+  /**
+   * Intermediate format document handler that counts rendered pages.
+   *
+   * @author Iulian Rotaru
+   */
+  private static final class PageCounter extends IFDocumentHandlerProxy
+  {
+    int pageCount;
+
+    PageCounter(IFDocumentHandler delegate)
+    {
+      super(delegate);
+    }
+
+    @Override
+    public void startPage(int index, String name, String pageMasterName, Dimension size) throws IFException
+    {
+      ++pageCount;
+      super.startPage(index, name, pageMasterName, size);
+    }
+  }
+}
@@ -0,0 +1,410 @@
+package com.jslib.fop;
+
+import java.awt.Dimension;
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.xml.transform.sax.SAXResult;
+
+import org.apache.fop.apps.FOPException;
+import org.apache.fop.apps.FOUserAgent;
+import org.apache.fop.apps.FopFactory;
+import org.apache.fop.render.intermediate.IFContext;
+import org.apache.fop.render.intermediate.IFDocumentHandler;
+import org.apache.fop.render.intermediate.IFException;
+import org.apache.fop.render.intermediate.IFPainter;
+import org.apache.fop.render.intermediate.IFSerializer;
+import org.apache.fop.render.intermediate.util.IFDocumentHandlerProxy;
+import org.xml.sax.helpers.DefaultHandler;
+
+import com.jslib.container.mvc.ViewMeta;
+import com.jslib.lang.BugError;
+
+/**
+ * Control how rendered document is written to output stream. By default output is buffered with 8 KB buffer and
+ * flushed only at document end. Views can change this from view meta properties:
+ * <ul>
+ * <li>{@link #PROP_BUFFER_SIZE} - output buffer size, in bytes,
+ * <li>{@link #PROP_FLUSH_PAGES} - flag to flush output stream after every page, so that client receives pages as soon
+ * as FOP releases them,
+ * <li>{@link #PROP_MAX_BYTES} - document size limit, in bytes,
+ * <li>{@link #PROP_MAX_PAGES} - document page count limit,
+ * <li>{@link #PROP_PAGE_RANGE} - render only pages from range, as <code>first-last</code> page numbers, 1-based and
+ * inclusive; a single page number is a range of one page, e.g. <code>1</code> for first page preview.
+ * </ul>
+ * When a limit is exceeded rendering is aborted with exception and FOP processor is released, together with its area
+ * tree; since response is already committed client receives a truncated document.
+ * <p>
+ * Layout stops as soon as last page from page range is rendered, so that preview of a long document costs only the
+ * pages up to page range end.
+ * <p>
+ * Pages flushing, page count limit and page range are implemented on FOP intermediate format document handler and
+ * are supported only for output formats rendered through intermediate format, e.g. PDF, but not RTF.
+ *
+ * @author Iulian Rotaru
+ * @version draft
+ */
+final class OutputControl
+{
+  static final String PROP_BUFFER_SIZE = "output-buffer-size";
+  static final String PROP_FLUSH_PAGES = "flush-pages";
+  static final String PROP_MAX_BYTES = "max-bytes";
+  static final String PROP_MAX_PAGES = "max-pages";
+  static final String PROP_PAGE_RANGE = "page-range";
+
+  /**
+   * Get output control configured from view meta.
+   *
+   * @param meta view meta.
+   * @return output control.
+   */
+  public static OutputControl getInstance(ViewMeta meta)
+  {
+    int bufferSize = meta.hasProperty(PROP_BUFFER_SIZE) ? Integer.parseInt(meta.getProperty(PROP_BUFFER_SIZE)) : 0;
+    boolean flushPages = Boolean.parseBoolean(meta.getProperty(PROP_FLUSH_PAGES));
+    long maxBytes = meta.hasProperty(PROP_MAX_BYTES) ? Long.parseLong(meta.getProperty(PROP_MAX_BYTES)) : 0;
+    int maxPages = meta.hasProperty(PROP_MAX_PAGES) ? Integer.parseInt(meta.getProperty(PROP_MAX_PAGES)) : 0;
+
+    int firstPage = 0;
+    int lastPage = 0;
+    if(meta.hasProperty(PROP_PAGE_RANGE)) {
+      String[] range = meta.getProperty(PROP_PAGE_RANGE).split("-");
+      firstPage = Integer.parseInt(range[0].trim());
+      lastPage = range.length > 1 ? Integer.parseInt(range[1].trim()) : firstPage;
+      if(range.length > 2 || firstPage < 1 || lastPage < firstPage) {
+        throw new BugError("Invalid page range |%s| for view |%s|.", meta.getProperty(PROP_PAGE_RANGE), meta.getName());
+      }
+    }
+    return new OutputControl(bufferSize, flushPages, maxBytes, maxPages, firstPage, lastPage);
+  }
+
+  /**
+   * Test if exception, or one of its causes, signals that document handler stopped layout after last page from page
+   * range. In this case document is complete and rendering succeeded.
+   *
+   * @param throwable exception thrown by FOP rendering.
+   * @return true if layout was stopped after page range end.
+   */
+  public static boolean isPageRangeComplete(Throwable throwable)
+  {
+    for(Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+      if(cause instanceof PageRangeComplete) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Output buffer size, zero for default. */
+  private final int bufferSize;
+
+  /** Flush output stream after every page. */
+  private final boolean flushPages;
+
+  /** Document size limit, zero for no limit. */
+  private final long maxBytes;
+
+  /** Document page count limit, zero for no limit. */
+  private final int maxPages;
+
+  /** First page from page range, 1-based, zero if page range is not configured. */
+  private final int firstPage;
+
+  /** Last page from page range, 1-based, zero if page range is not configured. */
+  private final int lastPage;
+
+  private OutputControl(int bufferSize, boolean flushPages, long maxBytes, int maxPages, int firstPage, int lastPage)
+  {
+    this.bufferSize = bufferSize;
+    this.flushPages = flushPages;
+    this.maxBytes = maxBytes;
+    this.maxPages = maxPages;
+    this.firstPage = firstPage;
+    this.lastPage = lastPage;
+  }
+
+  /**
+   * Create a copy of this output control with given page range.
+   *
+   * @param firstPage first page from page range, 1-based,
+   * @param lastPage last page from page range, 1-based, inclusive.
+   * @return output control with page range.
+   */
+  public OutputControl withPageRange(int firstPage, int lastPage)
+  {
+    return new OutputControl(bufferSize, flushPages, maxBytes, maxPages, firstPage, lastPage);
+  }
+
+  /**
+   * Wrap output stream with output buffer. If buffer size is not configured and output stream is already buffered,
+   * returns it as it is.
+   *
+   * @param outputStream output stream.
+   * @return buffered output stream.
+   */
+  public OutputStream buffer(OutputStream outputStream)
+  {
+    if(bufferSize > 0) {
+      return new BufferedOutputStream(outputStream, bufferSize);
+    }
+    return outputStream instanceof BufferedOutputStream ? outputStream : new BufferedOutputStream(outputStream);
+  }
+
+  /**
+   * Wrap output stream with document size limit, if configured.
+   *
+   * @param outputStream output stream.
+   * @return size limited output stream.
+   */
+  public OutputStream limit(OutputStream outputStream)
+  {
+    return maxBytes > 0 ? new LimitedOutputStream(outputStream, maxBytes) : outputStream;
+  }
+
+  /**
+   * Configure user agent for pages flushing, page count limit and page range, if configured and supported by output
+   * format.
+   *
+   * @param fopFactory FOP factory,
+   * @param agent user agent,
+   * @param mimeType output format MIME type,
+   * @param outputStream output stream flushed after every page.
+   * @throws FOPException if intermediate format document handler creation fails.
+   */
+  public void configure(FopFactory fopFactory, FOUserAgent agent, String mimeType, OutputStream outputStream) throws FOPException
+  {
+    if(!flushPages && maxPages == 0 && lastPage == 0) {
+      return;
+    }
+    // output formats with FO event handler, e.g. RTF, or legacy renderer, e.g. plain text, are not rendered through
+    // intermediate format
+    if(!IntermediateCache.isSupported(fopFactory, mimeType)) {
+      return;
+    }
+    IFDocumentHandler documentHandler = fopFactory.getRendererFactory().createDocumentHandler(agent, mimeType);
+    agent.setDocumentHandlerOverride(new PageControlHandler(documentHandler, flushPages ? outputStream : null, maxPages, firstPage, lastPage, agent));
+  }
+
+  /**
+   * Intermediate format document handler that flushes output stream after every page, enforces page count limit and
+   * renders only pages from page range. Pages before page range are laid out - since FOP layout is sequential - but
+   * their content is discarded into an intermediate format serializer with no output. After last page from page range
+   * document is closed and layout is aborted with {@link PageRangeComplete}.
+   *
+   * @author Iulian Rotaru
+   */
+  private static final class PageControlHandler extends IFDocumentHandlerProxy
+  {
+    /** Output stream flushed after every page, null if flushing is not enabled. */
+    private final OutputStream outputStream;
+    private final int maxPages;
+    private final int firstPage;
+    private final int lastPage;
+    private final FOUserAgent agent;
+    private int pageCount;
+
+    /** Current page number, 1-based. */
+    private int pageNumber;
+
+    /** Flag true while current page is outside page range. */
+    private boolean skipping;
+
+    /** Intermediate format serializer with no output, for discarded pages, created on first use. */
+    private IFSerializer discardHandler;
+
+    PageControlHandler(IFDocumentHandler delegate, OutputStream outputStream, int maxPages, int firstPage, int lastPage, FOUserAgent agent)
+    {
+      super(delegate);
+      this.outputStream = outputStream;
+      this.maxPages = maxPages;
+      this.firstPage = firstPage;
+      this.lastPage = lastPage;
+      this.agent = agent;
+    }
+
+    @Override
+    public void startPage(int index, String name, String pageMasterName, Dimension size) throws IFException
+    {
+      if(maxPages > 0 && pageCount == maxPages) {
+        throw new IFException(String.format("Document exceeds pages limit |%d|.", maxPages));
+      }
+      ++pageCount;
+      pageNumber = index + 1;
+      skipping = pageNumber < firstPage;
+      if(skipping) {
+        discardHandler().startPage(index, name, pageMasterName, size);
+        return;
+      }
+      super.startPage(index, name, pageMasterName, size);
+    }
+
+    @Override
+    public void startPageHeader() throws IFException
+    {
+      if(skipping) {
+        discardHandler.startPageHeader();
+        return;
+      }
+      super.startPageHeader();
+    }
+
+    @Override
+    public void endPageHeader() throws IFException
+    {
+      if(skipping) {
+        discardHandler.endPageHeader();
+        return;
+      }
+      super.endPageHeader();
+    }
+
+    @Override
+    public IFPainter startPageContent() throws IFException
+    {
+      return skipping ? discardHandler.startPageContent() : super.startPageContent();
+    }
+
+    @Override
+    public void endPageContent() throws IFException
+    {
+      if(skipping) {
+        discardHandler.endPageContent();
+        return;
+      }
+      super.endPageContent();
+    }
+
+    @Override
+    public void startPageTrailer() throws IFException
+    {
+      if(skipping) {
+        discardHandler.startPageTrailer();
+        return;
+      }
+      super.startPageTrailer();
+    }
+
+    @Override
+    public void endPageTrailer() throws IFException
+    {
+      if(skipping) {
+        discardHandler.endPageTrailer();
+        return;
+      }
+      super.endPageTrailer();
+    }
+
+    @Override
+    public void handleExtensionObject(Object extension) throws IFException
+    {
+      if(skipping) {
+        discardHandler.handleExtensionObject(extension);
+        return;
+      }
+      super.handleExtensionObject(extension);
+    }
+
+    @Override
+    public void endPage() throws IFException
+    {
+      if(skipping) {
+        discardHandler.endPage();
+        skipping = false;
+        return;
+      }
+      super.endPage();
+      flush();
+      if(pageNumber == lastPage) {
+        // close document after last page from range, then stop layout
+        super.endPageSequence();
+        super.startDocumentTrailer();
+        super.endDocumentTrailer();
+        super.endDocument();
+        flush();
+        throw new PageRangeComplete();
+      }
+    }
+
+    private void flush() throws IFException
+    {
+      if(outputStream != null) {
+        try {
+          outputStream.flush();
+        }
+        catch(IOException e) {
+          throw new IFException("Fail to flush page.", e);
+        }
+      }
+    }
+
+    private IFSerializer discardHandler() throws IFException
+    {
+      if(discardHandler == null) {
+        discardHandler = new IFSerializer(new IFContext(agent));
+        discardHandler.setResult(new SAXResult(new DefaultHandler()));
+        discardHandler.startDocument();
+        discardHandler.startDocumentHeader();
+        discardHandler.endDocumentHeader();
+        discardHandler.startPageSequence(null);
+      }
+      return discardHandler;
+    }
+  }
+
+  /**
+   * Exception thrown by intermediate format document handler to stop layout after last page from page range. It is
+   * not an error: document is complete when this exception is thrown, see {@link #isPageRangeComplete(Throwable)}.
+   *
+   * @author Iulian Rotaru
+   */
+  private static final class PageRangeComplete extends IFException
+  {
+    private static final long serialVersionUID = -2984457146238591376L;
+
+    PageRangeComplete()
+    {
+      super("Page range complete.");
+    }
+  }
+
+  /**
+   * Output stream that fails when document size limit is exceeded.
+   *
+   * @author Iulian Rotaru
+   */
+  private static final class LimitedOutputStream extends FilterOutputStream
+  {
+    private final long maxBytes;
+    private long count;
+
+    LimitedOutputStream(OutputStream outputStream, long maxBytes)
+    {
+      super(outputStream);
+      this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public void write(int b) throws IOException
+    {
+      checkLimit(1);
+      out.write(b);
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException
+    {
+      checkLimit(length);
+      out.write(buffer, offset, length);
+    }
+
+    private void checkLimit(int length) throws IOException
+    {
+      count += length;
+      if(count > maxBytes) {
+        throw new IOException(String.format("Document exceeds size limit |%d|.", maxBytes));
+      }
+    }
+  }
+}
@@ -0,0 +1,25 @@
+package com.jslib.fop;
+
+import org.apache.fop.apps.MimeConstants;
+
+import com.jslib.api.log.Log;
+import com.jslib.api.log.LogFactory;
+
+/**
+ * View for PCL documents rendering, the page description language of HP LaserJet compatible printers.
+ * 
+ * @author Iulian Rotaru
+ * @version draft
+ */
+final class PclView extends FoView
+{
+  /** Class logger. */
+  private static final Log log = LogFactory.getLog(PclView.class);
+
+  /** Create PCL view instance. */
+  public PclView()
+  {
+    super(MimeConstants.MIME_PCL, "PCL");
+    log.trace("PclView()");
+  }
+}
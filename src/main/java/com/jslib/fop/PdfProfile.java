@@ -0,0 +1,223 @@
+package com.jslib.fop;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.apache.fop.apps.FOUserAgent;
+import org.apache.fop.apps.MimeConstants;
+import org.apache.fop.pdf.PDFFilterList;
+import org.apache.fop.render.pdf.PDFRendererOption;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+import com.jslib.container.mvc.ViewMeta;
+import com.jslib.lang.BugError;
+
+/**
+ * PDF output profile, selected with {@link #PROP_PDF_PROFILE} view meta property. A profile trades document size
+ * against fidelity and inspectability:
+ * <ul>
+ * <li>{@link #DEFAULT} - FOP defaults, content and fonts streams compressed, sRGB color space embedded,
+ * <li>{@link #COMPACT} - recommended for documents downloaded on mobile clients: all streams compressed, including XMP
+ * metadata, no embedded sRGB color profile, fonts subset and 72 dpi target resolution,
+ * <li>{@link #PRINT} - fonts fully embedded, so that documents can be edited by prepress tools, and 300 dpi target
+ * resolution,
+ * <li>{@link #UNCOMPRESSED} - no stream compression, for documents inspection and debugging.
+ * </ul>
+ * Stream filters are part of FOP renderer configuration, not of user agent, so profiles that change filters use a FOP
+ * factory of their own, see {@link #configure(InputStream)}. Target resolution set by profile is only a default; it is
+ * overridden by <code>target-resolution</code> view property. Font embedding applies only to fonts declared explicitly,
+ * see {@link FontConfig}; auto-detected TrueType fonts are always subset.
+ * <p>
+ * FOP 2.2 does not support cross-reference object streams and does not resample embedded raster images; for bitmap
+ * images size, images should be stored with the resolution required by profile.
+ *
+ * @author Iulian Rotaru
+ * @version draft
+ */
+enum PdfProfile
+{
+  DEFAULT(null, false, "subset", 0),
+  COMPACT("flate", true, "subset", 72),
+  PRINT(null, false, "full", 300),
+  UNCOMPRESSED("null", false, "subset", 0);
+
+  static final String PROP_PDF_PROFILE = "pdf-profile";
+
+  /**
+   * Get PDF profile selected by view meta, default to {@link #DEFAULT}.
+   *
+   * @param meta view meta.
+   * @return PDF profile.
+   * @throws BugError if profile name is not recognized.
+   */
+  public static PdfProfile getInstance(ViewMeta meta)
+  {
+    if(!meta.hasProperty(PROP_PDF_PROFILE)) {
+      return DEFAULT;
+    }
+    String profile = meta.getProperty(PROP_PDF_PROFILE);
+    try {
+      return valueOf(profile.toUpperCase());
+    }
+    catch(IllegalArgumentException e) {
+      throw new BugError("Invalid PDF profile |%s| for view |%s|.", profile, meta.getName());
+    }
+  }
+
+  /** Stream types whose filter is set by profile. */
+  private static final String[] STREAM_TYPES = new String[]
+  {
+      PDFFilterList.DEFAULT_FILTER, PDFFilterList.CONTENT_FILTER, PDFFilterList.IMAGE_FILTER, PDFFilterList.FONT_FILTER,
+      PDFFilterList.METADATA_FILTER
+  };
+
+  /** Filter applied to all PDF streams, null for FOP defaults. */
+  private final String filter;
+
+  /** Do not embed sRGB color space profile. */
+  private final boolean disableSRGB;
+
+  /** Default embedding mode for explicitly declared fonts. */
+  private final String fontEmbedding;
+
+  /** Default target resolution, in dpi, zero for FOP default. */
+  private final int targetResolution;
+
+  private PdfProfile(String filter, boolean disableSRGB, String fontEmbedding, int targetResolution)
+  {
+    this.filter = filter;
+    this.disableSRGB = disableSRGB;
+    this.fontEmbedding = fontEmbedding;
+    this.targetResolution = targetResolution;
+  }
+
+  /**
+   * Get default embedding mode for explicitly declared fonts.
+   *
+   * @return font embedding mode.
+   */
+  public String getFontEmbedding()
+  {
+    return fontEmbedding;
+  }
+
+  /**
+   * Test if this profile changes FOP configuration, in which case it needs a FOP factory of its own.
+   *
+   * @return true if this profile changes FOP configuration.
+   */
+  public boolean isConfigurationChanged()
+  {
+    return filter != null;
+  }
+
+  /**
+   * Apply this profile to FOP configuration document: PDF renderer stream filters are replaced by profile filter.
+   *
+   * @param config FOP configuration document, closed by this method.
+   * @return updated FOP configuration document.
+   * @throws IOException if configuration document reading or parsing fails.
+   */
+  public InputStream configure(InputStream config) throws IOException
+  {
+    Document document;
+    try (InputStream stream = config) {
+      DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+      document = factory.newDocumentBuilder().parse(stream);
+    }
+    catch(ParserConfigurationException | SAXException e) {
+      throw new IOException(e);
+    }
+
+    Element renderer = getRenderer(document);
+    for(Node child = renderer.getFirstChild(), next; child != null; child = next) {
+      next = child.getNextSibling();
+      if("filterList".equals(child.getNodeName())) {
+        renderer.removeChild(child);
+      }
+    }
+    for(String type : STREAM_TYPES) {
+      Element filterList = document.createElement("filterList");
+      if(!PDFFilterList.DEFAULT_FILTER.equals(type)) {
+        filterList.setAttribute("type", type);
+      }
+      Element value = document.createElement("value");
+      value.setTextContent(filter);
+      filterList.appendChild(value);
+      renderer.appendChild(filterList);
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try {
+      Transformers.transform(new DOMSource(document), new StreamResult(bytes));
+    }
+    catch(TransformerException e) {
+      throw new IOException(e);
+    }
+    return new ByteArrayInputStream(bytes.toByteArray());
+  }
+
+  /** Get PDF renderer element from FOP configuration document, creating it if missing. */
+  private static Element getRenderer(Document document)
+  {
+    Element root = document.getDocumentElement();
+    Element renderers = getChild(root, "renderers");
+    if(renderers == null) {
+      renderers = document.createElement("renderers");
+      root.appendChild(renderers);
+    }
+    for(Node child = renderers.getFirstChild(); child != null; child = child.getNextSibling()) {
+      if(!(child instanceof Element) || !"renderer".equals(child.getNodeName())) {
+        continue;
+      }
+      if(MimeConstants.MIME_PDF.equals(((Element)child).getAttribute("mime"))) {
+        return (Element)child;
+      }
+    }
+    Element renderer = document.createElement("renderer");
+    renderer.setAttribute("mime", MimeConstants.MIME_PDF);
+    renderers.appendChild(renderer);
+    return renderer;
+  }
+
+  private static Element getChild(Element parent, String name)
+  {
+    for(Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+      if(child instanceof Element && name.equals(child.getNodeName())) {
+        return (Element)child;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Configure user agent renderer options for this profile; stream filters are not configured here since user agent
+   * options are overridden by FOP configuration, see {@link #configure(InputStream)}. Target resolution is set only if
+   * default resolution is requested, that is, user agent target resolution was not configured by view.
+   *
+   * @param agent user agent,
+   * @param defaultResolution true if target resolution is not set by view.
+   */
+  @SuppressWarnings("unchecked")
+  public void configure(FOUserAgent agent, boolean defaultResolution)
+  {
+    // user agent renderer options is a raw map
+    if(disableSRGB) {
+      agent.getRendererOptions().put(PDFRendererOption.DISABLE_SRGB_COLORSPACE.getName(), Boolean.TRUE);
+    }
+    if(targetResolution > 0 && defaultResolution) {
+      agent.setTargetResolution(targetResolution);
+    }
+  }
+}
@@ -0,0 +1,26 @@
+package com.jslib.fop;
+
+import org.apache.fop.apps.MimeConstants;
+
+import com.jslib.api.log.Log;
+import com.jslib.api.log.LogFactory;
+
+/**
+ * View for PNG images rendering. FOP renders one image per document page and only first page image is written on
+ * response; for small page previews see {@link ThumbnailView}.
+ * 
+ * @author Iulian Rotaru
+ * @version draft
+ */
+final class PngView extends FoView
+{
+  /** Class logger. */
+  private static final Log log = LogFactory.getLog(PngView.class);
+
+  /** Create PNG view instance. */
+  public PngView()
+  {
+    super(MimeConstants.MIME_PNG, "PNG");
+    log.trace("PngView()");
+  }
+}
@@ -0,0 +1,25 @@
+package com.jslib.fop;
+
+import org.apache.fop.apps.MimeConstants;
+
+import com.jslib.api.log.Log;
+import com.jslib.api.log.LogFactory;
+
+/**
+ * View for PostScript documents rendering, for printers and print servers accepting PostScript jobs.
+ * 
+ * @author Iulian Rotaru
+ * @version draft
+ */
+final class PostScriptView extends FoView
+{
+  /** Class logger. */
+  private static final Log log = LogFactory.getLog(PostScriptView.class);
+
+  /** Create PostScript view instance. */
+  public PostScriptView()
+  {
+    super(MimeConstants.MIME_POSTSCRIPT, "PostScript");
+    log.trace("PostScriptView()");
+  }
+}
@@ -0,0 +1,476 @@
+package com.jslib.fop;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import com.jslib.api.json.Json;
+import com.jslib.api.log.Log;
+import com.jslib.api.log.LogFactory;
+import com.jslib.container.mvc.ViewMeta;
+import com.jslib.lang.BugError;
+import com.jslib.util.Classes;
+
+/**
+ * Cache for rendered documents. A rendered document is identified by view class, render settings, template file,
+ * template file modification time, content type and model fingerprint; model fingerprint is the digest of model JSON
+ * serialization. The same key is used as HTTP entity tag, see {@link #getETag(String)}. Views on the same template
+ * but of different class or with different render settings, e.g. PNG and thumbnail views, have distinct caches.
+ * <p>
+ * Documents are kept in memory, least recently used documents being evicted when memory limit is reached. If spill
+ * directory is configured, evicted documents are moved to disk, also with a size limit; spill files are written
+ * outside cache lock and spill files left by a previous run are removed when spill directory is first used. Documents
+ * larger than memory limit are not cached at all.
+ * <p>
+ * Render cache is disabled by default and is enabled per view, from view meta properties:
+ * <ul>
+ * <li>{@link #PROP_CACHE} - flag to enable render cache, default to false,
+ * <li>{@link #PROP_CACHE_SIZE} - memory limit in bytes, default to {@link #DEFAULT_CACHE_SIZE},
+ * <li>{@link #PROP_SPILL_DIR} - optional directory for documents evicted from memory,
+ * <li>{@link #PROP_SPILL_SIZE} - spill directory limit in bytes, default to {@link #DEFAULT_SPILL_SIZE}.
+ * </ul>
+ *
+ * @author Iulian Rotaru
+ * @version draft
+ */
+final class RenderCache
+{
+  /** Class logger. */
+  private static final Log log = LogFactory.getLog(RenderCache.class);
+
+  static final String PROP_CACHE = "cache";
+  static final String PROP_CACHE_SIZE = "cache-size";
+  static final String PROP_SPILL_DIR = "cache-spill-dir";
+  static final String PROP_SPILL_SIZE = "cache-spill-size";
+
+  static final long DEFAULT_CACHE_SIZE = 16 * 1024 * 1024;
+  static final long DEFAULT_SPILL_SIZE = 256 * 1024 * 1024;
+
+  /** Spill file name: cache key followed by spill sequence number. */
+  private static final Pattern SPILL_FILE = Pattern.compile("[0-9a-f]{64}\\.\\d+");
+
+  /** Render caches mapped by view class, template, render settings and cache settings. */
+  private static final Map<String, RenderCache> caches = new ConcurrentHashMap<>();
+
+  /** Spill directories already cleaned of files left by a previous run. */
+  private static final Set<String> cleanedSpillDirs = ConcurrentHashMap.newKeySet();
+
+  /** Sequence for unique spill file names. */
+  private static final AtomicLong spillSequence = new AtomicLong();
+
+  /**
+   * Get render cache for view described by given class and meta, creating it on the fly. Returns null if render cache
+   * is not enabled for the view.
+   *
+   * @param viewClass view class,
+   * @param meta view meta.
+   * @return view render cache, possible null.
+   */
+  public static RenderCache getInstance(Class<?> viewClass, ViewMeta meta)
+  {
+    return getInstance(viewClass, meta, false);
+  }
+
+  /**
+   * Get render cache for view described by given class and meta, creating it on the fly. Returns null if render cache
+   * is disabled for the view; if view meta has no {@link #PROP_CACHE} property, render cache is enabled by default
+   * flag.
+   *
+   * @param viewClass view class,
+   * @param meta view meta,
+   * @param enabledByDefault enable render cache if view meta does not configure it.
+   * @return view render cache, possible null.
+   */
+  public static RenderCache getInstance(Class<?> viewClass, ViewMeta meta, boolean enabledByDefault)
+  {
+    boolean enabled = meta.hasProperty(PROP_CACHE) ? Boolean.parseBoolean(meta.getProperty(PROP_CACHE)) : enabledByDefault;
+    if(!enabled) {
+      return null;
+    }
+
+    StringBuilder key = new StringBuilder();
+    key.append(viewClass.getName()).append('|');
+    key.append(meta.getName()).append('|');
+    key.append(RenderProfile.getInstance(meta).getSettingsKey()).append('|');
+    key.append(meta.getProperty(PROP_CACHE_SIZE)).append('|');
+    key.append(meta.getProperty(PROP_SPILL_DIR)).append('|');
+    key.append(meta.getProperty(PROP_SPILL_SIZE));
+
+    return caches.computeIfAbsent(key.toString(), name -> {
+      long cacheSize = meta.hasProperty(PROP_CACHE_SIZE) ? Long.parseLong(meta.getProperty(PROP_CACHE_SIZE)) : DEFAULT_CACHE_SIZE;
+      File spillDir = meta.hasProperty(PROP_SPILL_DIR) ? new File(meta.getProperty(PROP_SPILL_DIR)) : null;
+      long spillSize = meta.hasProperty(PROP_SPILL_SIZE) ? Long.parseLong(meta.getProperty(PROP_SPILL_SIZE)) : DEFAULT_SPILL_SIZE;
+      return new RenderCache(cacheSize, spillDir, spillSize);
+    });
+  }
+
+  /** Memory limit, in bytes. */
+  private final long cacheSize;
+
+  /** Optional spill directory, null if spill is not enabled. */
+  private final File spillDir;
+
+  /** Spill directory limit, in bytes. */
+  private final long spillSize;
+
+  /** In memory documents in access order. Guarded by this cache instance. */
+  private final LinkedHashMap<String, Entry> memoryEntries = new LinkedHashMap<>(16, 0.75F, true);
+
+  /** Documents spilled to disk, in access order. Guarded by this cache instance. */
+  private final LinkedHashMap<String, Entry> diskEntries = new LinkedHashMap<>(16, 0.75F, true);
+
+  /** Current size of in memory documents. */
+  private long memoryUsage;
+
+  /** Current size of documents spilled to disk. */
+  private long diskUsage;
+
+  RenderCache(long cacheSize, File spillDir, long spillSize)
+  {
+    log.debug("Create render cache with size |{}|. Spill directory |{}|.", cacheSize, spillDir);
+    if(spillDir != null && !spillDir.isDirectory() && !spillDir.mkdirs()) {
+      throw new BugError("Cannot create render cache spill directory |%s|.", spillDir);
+    }
+    this.cacheSize = cacheSize;
+    this.spillDir = spillDir;
+    this.spillSize = spillSize;
+    if(spillDir != null) {
+      cleanSpillDir(spillDir);
+    }
+  }
+
+  /**
+   * Remove spill files left in spill directory by a previous run; they are not indexed and would never be evicted.
+   * Directory is cleaned only first time it is used in current process since it may be shared by many caches. Only
+   * files named as spill files are removed.
+   *
+   * @param spillDir spill directory.
+   */
+  private static void cleanSpillDir(File spillDir)
+  {
+    if(!cleanedSpillDirs.add(spillDir.getAbsolutePath())) {
+      return;
+    }
+    File[] files = spillDir.listFiles((dir, name) -> SPILL_FILE.matcher(name).matches());
+    if(files == null) {
+      return;
+    }
+    for(File file : files) {
+      if(!file.delete()) {
+        log.warn("Cannot delete stale render cache spill file |{}|.", file);
+      }
+    }
+  }
+
+  /**
+   * Create cache key for document rendered by view from given template and model. Returns null if model cannot be
+   * serialized to JSON, in which case rendered document is not cached.
+   *
+   * @param viewClass view class,
+   * @param profile view render profile,
+   * @param templateFile template file,
+   * @param contentType rendered document content type,
+   * @param model model used to inject dynamic content into template.
+   * @return cache key or null.
+   */
+  public static String getKey(Class<?> viewClass, RenderProfile profile, File templateFile, String contentType, Object model)
+  {
+    return getKey(viewClass.getName() + '|' + profile.getSettingsKey(), templateFile, contentType, model);
+  }
+
+  /**
+   * Create cache key for document rendered from given template and model, with no view specific settings. Returns null
+   * if model cannot be serialized to JSON.
+   *
+   * @param templateFile template file,
+   * @param contentType rendered document content type,
+   * @param model model used to inject dynamic content into template.
+   * @return cache key or null.
+   */
+  public static String getKey(File templateFile, String contentType, Object model)
+  {
+    return getKey("", templateFile, contentType, model);
+  }
+
+  private static String getKey(String settings, File templateFile, String contentType, Object model)
+  {
+    String modelJson;
+    try {
+      modelJson = Classes.loadService(Json.class).stringify(model);
+    }
+    catch(Exception e) {
+      log.warn("Cannot compute fingerprint for model |{}|. Rendered document is not cached.", model.getClass());
+      return null;
+    }
+
+    StringBuilder identity = new StringBuilder();
+    identity.append(settings).append('\n');
+    identity.append(templateFile.getAbsolutePath()).append('\n');
+    identity.append(templateFile.lastModified()).append('\n');
+    identity.append(contentType).append('\n');
+    identity.append(modelJson);
+
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    }
+    catch(NoSuchAlgorithmException e) {
+      throw new BugError(e);
+    }
+    StringBuilder key = new StringBuilder();
+    for(byte b : digest.digest(identity.toString().getBytes(StandardCharsets.UTF_8))) {
+      key.append(Character.forDigit((b >> 4) & 0xF, 16));
+      key.append(Character.forDigit(b & 0xF, 16));
+    }
+    return key.toString();
+  }
+
+  /**
+   * Get HTTP entity tag for cache key.
+   *
+   * @param key cache key.
+   * @return entity tag.
+   */
+  public static String getETag(String key)
+  {
+    return '"' + key + '"';
+  }
+
+  /**
+   * Get the time when document identified by given key was rendered, or current time if document is not cached. On
+   * cache miss, returned time should be passed to {@link #capture(String, long, OutputStream)} so that cached document
+   * keeps the last modified time already sent to client.
+   *
+   * @param key cache key.
+   * @return document last modification time.
+   */
+  public synchronized long getLastModified(String key)
+  {
+    Entry entry = memoryEntries.get(key);
+    if(entry == null) {
+      entry = diskEntries.get(key);
+    }
+    return entry != null ? entry.timestamp : System.currentTimeMillis();
+  }
+
+  /**
+   * Copy cached document to given output stream. Returns false if document is not cached.
+   *
+   * @param key cache key,
+   * @param outputStream destination output stream.
+   * @return true if document was found on cache.
+   * @throws IOException if copy operation fails.
+   */
+  public boolean copy(String key, OutputStream outputStream) throws IOException
+  {
+    Entry entry;
+    synchronized(this) {
+      entry = memoryEntries.get(key);
+      if(entry == null) {
+        entry = diskEntries.get(key);
+      }
+    }
+    if(entry == null) {
+      return false;
+    }
+
+    if(entry.bytes != null) {
+      outputStream.write(entry.bytes);
+      return true;
+    }
+    try {
+      Files.copy(entry.file.toPath(), outputStream);
+    }
+    catch(NoSuchFileException e) {
+      // spill file was removed by a concurrent eviction before being opened; nothing written yet so it is a cache miss
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Create output stream that writes to given destination and collects written bytes. Collected document is stored on
+   * cache on {@link Capture#commit()}; if not committed, e.g. because rendering fails, nothing is cached.
+   *
+   * @param key cache key,
+   * @param timestamp document last modification time, see {@link #getLastModified(String)},
+   * @param outputStream destination output stream.
+   * @return capturing output stream.
+   */
+  public Capture capture(String key, long timestamp, OutputStream outputStream)
+  {
+    return new Capture(key, timestamp, outputStream);
+  }
+
+  /**
+   * Store document on memory, evicting least recently used documents. Evicted documents are written to spill directory
+   * after releasing cache lock, so that concurrent lookups do not wait for disk writes.
+   */
+  private void put(String key, byte[] bytes, long timestamp)
+  {
+    List<Map.Entry<String, Entry>> evicted = new ArrayList<>();
+    synchronized(this) {
+      Entry entry = new Entry(bytes, timestamp);
+      Entry previous = memoryEntries.put(key, entry);
+      if(previous != null) {
+        memoryUsage -= previous.size;
+      }
+      memoryUsage += entry.size;
+
+      Iterator<Map.Entry<String, Entry>> iterator = memoryEntries.entrySet().iterator();
+      while(memoryUsage > cacheSize && iterator.hasNext()) {
+        Map.Entry<String, Entry> eldest = iterator.next();
+        iterator.remove();
+        memoryUsage -= eldest.getValue().size;
+        evicted.add(eldest);
+      }
+    }
+    if(spillDir != null) {
+      for(Map.Entry<String, Entry> entry : evicted) {
+        spill(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  /**
+   * Write evicted document to a spill file of its own then register it on disk entries. Spill files removed from disk
+   * entries are deleted after releasing cache lock.
+   */
+  private void spill(String key, Entry entry)
+  {
+    // unique file name: a spill file being deleted is never overwritten by a newer spill of the same key
+    File file = new File(spillDir, key + '.' + spillSequence.incrementAndGet());
+    try {
+      Files.write(file.toPath(), entry.bytes);
+    }
+    catch(IOException e) {
+      log.warn("Fail to spill rendered document to |{}|.", file);
+      return;
+    }
+
+    List<File> evictedFiles = new ArrayList<>();
+    synchronized(this) {
+      Entry previous = diskEntries.put(key, new Entry(file, entry.size, entry.timestamp));
+      if(previous != null) {
+        diskUsage -= previous.size;
+        evictedFiles.add(previous.file);
+      }
+      diskUsage += entry.size;
+
+      Iterator<Map.Entry<String, Entry>> iterator = diskEntries.entrySet().iterator();
+      while(diskUsage > spillSize && iterator.hasNext()) {
+        Entry eldest = iterator.next().getValue();
+        iterator.remove();
+        diskUsage -= eldest.size;
+        evictedFiles.add(eldest.file);
+      }
+    }
+    for(File evictedFile : evictedFiles) {
+      if(!evictedFile.delete()) {
+        log.warn("Cannot delete render cache spill file |{}|.", evictedFile);
+      }
+    }
+  }
+
+  /**
+   * Output stream collecting written bytes for render cache. Stops collecting if document size exceeds cache memory
+   * limit.
+   *
+   * @author Iulian Rotaru
+   */
+  final class Capture extends FilterOutputStream
+  {
+    private final String key;
+    private final long timestamp;
+    private ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    private Capture(String key, long timestamp, OutputStream outputStream)
+    {
+      super(outputStream);
+      this.key = key;
+      this.timestamp = timestamp;
+    }
+
+    @Override
+    public void write(int b) throws IOException
+    {
+      out.write(b);
+      if(bytes != null) {
+        bytes.write(b);
+        checkSize();
+      }
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException
+    {
+      out.write(buffer, offset, length);
+      if(bytes != null) {
+        bytes.write(buffer, offset, length);
+        checkSize();
+      }
+    }
+
+    /** Store collected document on render cache. */
+    public void commit()
+    {
+      if(bytes != null) {
+        put(key, bytes.toByteArray(), timestamp);
+        bytes = null;
+      }
+    }
+
+    private void checkSize()
+    {
+      if(bytes.size() > cacheSize) {
+        log.debug("Rendered document exceeds render cache size. Do not cache it.");
+        bytes = null;
+      }
+    }
+  }
+
+  /**
+   * Cached document, either in memory bytes or spill file.
+   *
+   * @author Iulian Rotaru
+   */
+  private static final class Entry
+  {
+    final byte[] bytes;
+    final File file;
+    final long size;
+    final long timestamp;
+
+    Entry(byte[] bytes, long timestamp)
+    {
+      this.bytes = bytes;
+      this.file = null;
+      this.size = bytes.length;
+      this.timestamp = timestamp;
+    }
+
+    Entry(File file, long size, long timestamp)
+    {
+      this.bytes = null;
+      this.file = file;
+      this.size = size;
+      this.timestamp = timestamp;
+    }
+  }
+}
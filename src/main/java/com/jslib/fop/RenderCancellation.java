@@ -0,0 +1,273 @@
+package com.jslib.fop;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+
+/**
+ * Cooperative cancellation for a single render. FOP has no cancellation support and does not check thread interrupt
+ * flag, so rendering is aborted from the points where control returns to this library: FO parsing events and rendered
+ * document writes. A render is cancelled when:
+ * <ul>
+ * <li>a write to output stream fails, usually because client closed the connection,
+ * <li>render deadline passes, see {@link RenderProfile#getRenderTimeout()},
+ * <li>render thread is interrupted, e.g. by {@link RenderExecutor} on render timeout.
+ * </ul>
+ * Once cancelled, the next FO element or output write throws {@link RenderCancelledException}, FOP pipeline unwinds and
+ * FO processor is released, together with its FO and area trees. Note that layout of a page sequence runs without
+ * parsing events and is not interrupted; pages rendering that follows is.
+ * <p>
+ * This class is not thread safe, except {@link #cancel(String)} that can be invoked from any thread.
+ *
+ * @author Iulian Rotaru
+ * @version draft
+ */
+final class RenderCancellation
+{
+  /** Render deadline, as {@link System#nanoTime()} value, meaningless if there is no deadline. */
+  private final long deadline;
+
+  /** Flag true if render has a deadline. */
+  private final boolean hasDeadline;
+
+  /** Cancellation exception, null while render is not cancelled. Only first cancellation is kept. */
+  private final AtomicReference<RenderCancelledException> exception = new AtomicReference<>();
+
+  /**
+   * Create cancellation for a render with given timeout.
+   *
+   * @param timeout render timeout, in milliseconds, zero for no deadline.
+   */
+  RenderCancellation(long timeout)
+  {
+    this.hasDeadline = timeout > 0;
+    this.deadline = System.nanoTime() + timeout * 1000000;
+  }
+
+  /**
+   * Cancel render. Takes effect on next FO element or output write; only first cancellation reason is kept.
+   *
+   * @param reason cancellation reason.
+   */
+  public void cancel(String reason)
+  {
+    exception.compareAndSet(null, new RenderCancelledException(reason));
+  }
+
+  /** Test if render was cancelled. */
+  public boolean isCancelled()
+  {
+    return exception.get() != null;
+  }
+
+  /** Get cancellation exception, null if render was not cancelled. */
+  public RenderCancelledException getException()
+  {
+    return exception.get();
+  }
+
+  /**
+   * Check render deadline and current thread interrupt flag, then throw if render is cancelled.
+   *
+   * @throws RenderCancelledException if render is cancelled.
+   */
+  public void check() throws RenderCancelledException
+  {
+    if(exception.get() == null) {
+      if(hasDeadline && System.nanoTime() - deadline > 0) {
+        cancel("Render deadline passed.");
+      }
+      else if(Thread.currentThread().isInterrupted()) {
+        cancel("Render thread interrupted.");
+      }
+    }
+    RenderCancelledException cancelled = exception.get();
+    if(cancelled != null) {
+      throw cancelled;
+    }
+  }
+
+  /**
+   * Wrap output stream so that every write checks for cancellation and a failed write cancels render.
+   *
+   * @param outputStream target output stream.
+   * @return cancellable output stream.
+   */
+  public OutputStream monitor(OutputStream outputStream)
+  {
+    return new CancellableOutputStream(outputStream);
+  }
+
+  /**
+   * Wrap content handler so that FO elements check for cancellation.
+   *
+   * @param handler target content handler.
+   * @return cancellable content handler.
+   */
+  public ContentHandler filter(ContentHandler handler)
+  {
+    return new CancellableHandler(handler);
+  }
+
+  /**
+   * Output stream that checks for cancellation before every write and cancels render on write failure.
+   *
+   * @author Iulian Rotaru
+   */
+  private final class CancellableOutputStream extends FilterOutputStream
+  {
+    CancellableOutputStream(OutputStream outputStream)
+    {
+      super(outputStream);
+    }
+
+    @Override
+    public void write(int b) throws IOException
+    {
+      check();
+      try {
+        out.write(b);
+      }
+      catch(IOException e) {
+        throw writeFailure(e);
+      }
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException
+    {
+      check();
+      try {
+        out.write(buffer, offset, length);
+      }
+      catch(IOException e) {
+        throw writeFailure(e);
+      }
+    }
+
+    @Override
+    public void flush() throws IOException
+    {
+      check();
+      try {
+        out.flush();
+      }
+      catch(IOException e) {
+        throw writeFailure(e);
+      }
+    }
+
+    /**
+     * Cancel render on output write failure. Write failure is the cause of cancellation exception or, if render was
+     * already cancelled for other reason, is attached to it as suppressed exception.
+     */
+    private IOException writeFailure(IOException e)
+    {
+      RenderCancelledException cancelled = new RenderCancelledException(String.format("Output write failure: %s", e.getMessage()), e);
+      if(!exception.compareAndSet(null, cancelled)) {
+        cancelled = exception.get();
+        cancelled.addSuppressed(e);
+      }
+      return cancelled;
+    }
+  }
+
+  /**
+   * Content handler that checks for cancellation on every element start and end.
+   *
+   * @author Iulian Rotaru
+   */
+  private final class CancellableHandler implements ContentHandler
+  {
+    private final ContentHandler target;
+
+    CancellableHandler(ContentHandler target)
+    {
+      this.target = target;
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException
+    {
+      checkElement();
+      target.startElement(uri, localName, qName, attributes);
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) throws SAXException
+    {
+      checkElement();
+      target.endElement(uri, localName, qName);
+    }
+
+    @Override
+    public void characters(char[] chars, int start, int length) throws SAXException
+    {
+      target.characters(chars, start, length);
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] chars, int start, int length) throws SAXException
+    {
+      target.ignorableWhitespace(chars, start, length);
+    }
+
+    @Override
+    public void setDocumentLocator(Locator locator)
+    {
+      target.setDocumentLocator(locator);
+    }
+
+    @Override
+    public void startDocument() throws SAXException
+    {
+      target.startDocument();
+    }
+
+    @Override
+    public void endDocument() throws SAXException
+    {
+      target.endDocument();
+    }
+
+    @Override
+    public void startPrefixMapping(String prefix, String uri) throws SAXException
+    {
+      target.startPrefixMapping(prefix, uri);
+    }
+
+    @Override
+    public void endPrefixMapping(String prefix) throws SAXException
+    {
+      target.endPrefixMapping(prefix);
+    }
+
+    @Override
+    public void processingInstruction(String target, String data) throws SAXException
+    {
+      this.target.processingInstruction(target, data);
+    }
+
+    @Override
+    public void skippedEntity(String name) throws SAXException
+    {
+      target.skippedEntity(name);
+    }
+
+    private void checkElement() throws SAXException
+    {
+      try {
+        check();
+      }
+      catch(RenderCancelledException e) {
+        throw new SAXException(e);
+      }
+    }
+  }
+}
@@ -0,0 +1,41 @@
+package com.jslib.fop;
+
+import java.io.IOException;
+
+/**
+ * Render was cancelled before completion because client disconnected, render deadline passed or render thread was
+ * interrupted, see {@link RenderCancellation}. Cancelled renders are counted separately from failed renders.
+ *
+ * @author Iulian Rotaru
+ * @version draft
+ */
+public final class RenderCancelledException extends IOException
+{
+  private static final long serialVersionUID = 5870312458117946325L;
+
+  RenderCancelledException(String message)
+  {
+    super(message);
+  }
+
+  RenderCancelledException(String message, Throwable cause)
+  {
+    super(message, cause);
+  }
+
+  /**
+   * Test if exception, or one of its causes, is a render cancellation.
+   *
+   * @param throwable exception thrown by rendering, null tolerated.
+   * @return true if rendering was cancelled.
+   */
+  public static boolean isCancelled(Throwable throwable)
+  {
+    for(Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+      if(cause instanceof RenderCancelledException) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,105 @@
+package com.jslib.fop;
+
+/**
+ * Timings and results for a single document rendering, published to {@link RenderListener render listeners}. All
+ * durations are measured with {@link System#nanoTime()} and are expressed in nanoseconds.
+ * <p>
+ * FO parsing, layout and output are pipelined by FOP and cannot be measured separately; they are reported together as
+ * render duration. On streaming mode template serialization runs concurrently with rendering and its duration is
+ * included in render duration, template serialization duration being zero.
+ *
+ * @author Iulian Rotaru
+ * @version draft
+ */
+public final class RenderEvent
+{
+  private final String viewName;
+  private final String contentType;
+  private final long templateLoadNanos;
+  private final long templateSerializeNanos;
+  private final long renderNanos;
+  private final long bytesWritten;
+  private final int pageCount;
+  private final Throwable failure;
+
+  RenderEvent(String viewName, String contentType, long templateLoadNanos, long templateSerializeNanos, long renderNanos, long bytesWritten, int pageCount, Throwable failure)
+  {
+    this.viewName = viewName;
+    this.contentType = contentType;
+    this.templateLoadNanos = templateLoadNanos;
+    this.templateSerializeNanos = templateSerializeNanos;
+    this.renderNanos = renderNanos;
+    this.bytesWritten = bytesWritten;
+    this.pageCount = pageCount;
+    this.failure = failure;
+  }
+
+  /** Get the name of the view that rendered the document. */
+  public String getViewName()
+  {
+    return viewName;
+  }
+
+  /** Get rendered document content type. */
+  public String getContentType()
+  {
+    return contentType;
+  }
+
+  /** Get template loading duration, close to zero if template is served from cache. */
+  public long getTemplateLoadNanos()
+  {
+    return templateLoadNanos;
+  }
+
+  /** Get template serialization duration, zero if template serialization is streamed. */
+  public long getTemplateSerializeNanos()
+  {
+    return templateSerializeNanos;
+  }
+
+  /** Get FO parsing, layout and output duration. */
+  public long getRenderNanos()
+  {
+    return renderNanos;
+  }
+
+  /** Get total duration, from template loading to output end. */
+  public long getTotalNanos()
+  {
+    return templateLoadNanos + templateSerializeNanos + renderNanos;
+  }
+
+  /** Get the number of bytes written to output stream. */
+  public long getBytesWritten()
+  {
+    return bytesWritten;
+  }
+
+  /** Get the number of rendered pages, zero if output format does not report pages, e.g. RTF. */
+  public int getPageCount()
+  {
+    return pageCount;
+  }
+
+  /** Get rendering failure or null if rendering succeeded. */
+  public Throwable getFailure()
+  {
+    return failure;
+  }
+
+  /** Test if rendering failed. Cancelled rendering is also reported as failed, see {@link #isCancelled()}. */
+  public boolean isFailed()
+  {
+    return failure != null;
+  }
+
+  /**
+   * Test if rendering was cancelled because client disconnected, render deadline passed or render thread was
+   * interrupted, see {@link RenderCancelledException}.
+   */
+  public boolean isCancelled()
+  {
+    return RenderCancelledException.isCancelled(failure);
+  }
+}
@@ -0,0 +1,260 @@
+package com.jslib.fop;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.jslib.api.log.Log;
+import com.jslib.api.log.LogFactory;
+import com.jslib.container.mvc.ViewMeta;
+
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Bounded executor for FO rendering, shared by all views with asynchronous mode enabled. Rendering is moved from
+ * servlet thread to a dedicated pool with fixed number of threads and limited queue; when both are full, new render
+ * requests are rejected immediately with <code>503 Service Unavailable</code> and <code>Retry-After</code> header,
+ * before writing anything on response. In this way heavy reports bursts are bounded and cannot exhaust container
+ * request threads that serve lightweight endpoints. Every render has a timeout after which it is cancelled.
+ * <p>
+ * Render task writes on HTTP response from pooled thread. On timeout or interrupt the render thread is interrupted and
+ * servlet thread waits for render task to unwind before returning, so that response is never written after container
+ * recycled it; rendering is aborted on next FO element or output write, see {@link RenderCancellation}.
+ * <p>
+ * Executor is configured from system properties:
+ * <ul>
+ * <li>{@link #PROP_THREADS} - number of render threads, default to available processors,
+ * <li>{@link #PROP_QUEUE} - number of renders waiting for a free thread, default to twice the number of threads,
+ * <li>{@link #PROP_RETRY_AFTER} - seconds sent on <code>Retry-After</code> header, default to 5.
+ * </ul>
+ * Asynchronous mode is enabled per view, from view meta properties:
+ * <ul>
+ * <li>{@link #PROP_ASYNC} - flag to enable asynchronous rendering, default to false,
+ * <li>{@link #PROP_TIMEOUT} - render timeout in milliseconds, default to {@link #DEFAULT_TIMEOUT}.
+ * </ul>
+ *
+ * @author Iulian Rotaru
+ * @version draft
+ */
+final class RenderExecutor
+{
+  /** Class logger. */
+  private static final Log log = LogFactory.getLog(RenderExecutor.class);
+
+  static final String PROP_THREADS = "com.jslib.fop.render-threads";
+  static final String PROP_QUEUE = "com.jslib.fop.render-queue";
+  static final String PROP_RETRY_AFTER = "com.jslib.fop.render-retry-after";
+
+  static final String PROP_ASYNC = "async";
+  static final String PROP_TIMEOUT = "render-timeout";
+
+  static final long DEFAULT_TIMEOUT = 60000;
+
+  private static final int THREADS = Integer.getInteger(PROP_THREADS, Runtime.getRuntime().availableProcessors());
+  private static final int QUEUE = Integer.getInteger(PROP_QUEUE, 2 * THREADS);
+  private static final int RETRY_AFTER = Integer.getInteger(PROP_RETRY_AFTER, 5);
+
+  /** Executor instance shared by all views. */
+  private static final RenderExecutor instance = new RenderExecutor(THREADS, QUEUE);
+
+  /**
+   * Get render executor if asynchronous mode is enabled for view described by given meta.
+   *
+   * @param meta view meta.
+   * @return shared render executor or null if view is synchronous.
+   */
+  public static RenderExecutor getInstance(ViewMeta meta)
+  {
+    return RenderProfile.getInstance(meta).isAsync() ? instance : null;
+  }
+
+  /** Bounded thread pool executor. */
+  private final ThreadPoolExecutor executor;
+
+  /** Number of render requests rejected because executor was saturated. */
+  private final LongAdder rejected = new LongAdder();
+
+  /** Number of renders cancelled on timeout. */
+  private final LongAdder timedOut = new LongAdder();
+
+  RenderExecutor(int threads, int queue)
+  {
+    log.debug("Create render executor with |{}| threads and queue limit |{}|.", threads, queue);
+    executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queue), new DaemonThreadFactory("fo-render-"));
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Execute render task on a pooled thread and wait for its completion, with timeout. If executor is saturated send
+   * service unavailable response and return immediately. On timeout or interrupt, render task is cancelled and this
+   * method returns only after render task completes, if it was already started.
+   *
+   * @param meta meta of the view requesting render,
+   * @param httpResponse HTTP response,
+   * @param task render task.
+   * @throws IOException if render task fails, is interrupted or timed out.
+   */
+  public void render(ViewMeta meta, HttpServletResponse httpResponse, RenderTask task) throws IOException
+  {
+    RenderRun run = new RenderRun(task);
+    Future<Void> future;
+    try {
+      future = executor.submit(run);
+    }
+    catch(RejectedExecutionException e) {
+      rejected.increment();
+      log.warn("Render executor saturated. Reject view |{}|.", meta.getName());
+      httpResponse.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+      httpResponse.setIntHeader("Retry-After", RETRY_AFTER);
+      return;
+    }
+
+    // render timeout is parsed once per view meta, see RenderProfile
+    long timeout = RenderProfile.getInstance(meta).getRenderTimeout();
+    if(timeout == 0) {
+      timeout = DEFAULT_TIMEOUT;
+    }
+    try {
+      future.get(timeout, TimeUnit.MILLISECONDS);
+    }
+    catch(TimeoutException e) {
+      timedOut.increment();
+      run.cancel(future);
+      throw new IOException(String.format("Render timeout for view |%s|.", meta.getName()));
+    }
+    catch(InterruptedException e) {
+      run.cancel(future);
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+    catch(ExecutionException e) {
+      Throwable cause = e.getCause();
+      if(cause instanceof IOException) {
+        throw (IOException)cause;
+      }
+      if(cause instanceof RuntimeException) {
+        throw (RuntimeException)cause;
+      }
+      if(cause instanceof Error) {
+        throw (Error)cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  /**
+   * Get the number of renders waiting for a free render thread.
+   *
+   * @return queued renders count.
+   */
+  public int getQueuedCount()
+  {
+    return executor.getQueue().size();
+  }
+
+  /**
+   * Get the number of render requests rejected because executor was saturated.
+   *
+   * @return rejected renders count.
+   */
+  public long getRejectedCount()
+  {
+    return rejected.sum();
+  }
+
+  /**
+   * Get the number of renders cancelled on timeout.
+   *
+   * @return timed out renders count.
+   */
+  public long getTimedOutCount()
+  {
+    return timedOut.sum();
+  }
+
+  /**
+   * Render task executed by render executor.
+   *
+   * @author Iulian Rotaru
+   */
+  @FunctionalInterface
+  interface RenderTask
+  {
+    void run() throws IOException;
+  }
+
+  /**
+   * Render task wrapper that tracks task start and completion, so that a cancelled render can be waited for. A
+   * cancelled {@link Future} does not wait for the task it wraps.
+   *
+   * @author Iulian Rotaru
+   */
+  private static final class RenderRun implements Callable<Void>
+  {
+    private final RenderTask task;
+    /** Flag set when task starts or when it is cancelled before starting, whichever comes first. */
+    private final AtomicBoolean started = new AtomicBoolean();
+    /** Released when started task completes. */
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    RenderRun(RenderTask task)
+    {
+      this.task = task;
+    }
+
+    @Override
+    public Void call() throws IOException
+    {
+      if(!started.compareAndSet(false, true)) {
+        return null;
+      }
+      try {
+        task.run();
+      }
+      finally {
+        done.countDown();
+      }
+      return null;
+    }
+
+    /**
+     * Cancel render task and, if already started, interrupt render thread and wait for task completion. Waiting is not
+     * interruptible; current thread interrupt flag is preserved.
+     *
+     * @param future future of this render task.
+     */
+    void cancel(Future<?> future)
+    {
+      if(started.compareAndSet(false, true)) {
+        // task not started and will not start anymore
+        future.cancel(false);
+        return;
+      }
+      future.cancel(true);
+
+      boolean interrupted = false;
+      for(;;) {
+        try {
+          done.await();
+          break;
+        }
+        catch(InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if(interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
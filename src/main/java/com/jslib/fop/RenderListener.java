@@ -0,0 +1,38 @@
+package com.jslib.fop;
+
+import java.net.URI;
+
+/**
+ * Service provider interface for rendering instrumentation. Implementations are discovered with
+ * {@link java.util.ServiceLoader}, that is, declared on <code>META-INF/services/com.jslib.fop.RenderListener</code>, and
+ * are notified synchronously, on rendering thread; they should be fast and should not throw exceptions. Exceptions
+ * thrown by listeners are logged and ignored.
+ * <p>
+ * This interface is the bridge for metrics libraries. For example, a Micrometer bridge records
+ * {@link RenderEvent#getTotalNanos()} on a timer tagged with view name, which provides p99 render latency, and
+ * {@link RenderEvent#getBytesWritten()} on a distribution summary. Built-in JMX statistics are published by
+ * {@link RenderStatistics}.
+ *
+ * @author Iulian Rotaru
+ * @version draft
+ */
+public interface RenderListener
+{
+  /**
+   * Notify that a FOP factory was created.
+   *
+   * @param config FOP configuration resource,
+   * @param baseURI resources base URI,
+   * @param durationNanos factory creation duration, in nanoseconds.
+   */
+  default void onFactoryCreated(String config, URI baseURI, long durationNanos)
+  {
+  }
+
+  /**
+   * Notify that a document rendering completed, successfully or not.
+   *
+   * @param event rendering timings and results.
+   */
+  void onRender(RenderEvent event);
+}
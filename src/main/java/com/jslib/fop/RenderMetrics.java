@@ -0,0 +1,136 @@
+package com.jslib.fop;
+
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ServiceLoader;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.jslib.api.log.Log;
+import com.jslib.api.log.LogFactory;
+
+/**
+ * Publish rendering events to registered render listeners. Listeners are the built-in {@link RenderStatistics},
+ * registered on platform MBean server, and all {@link RenderListener} services found on class path.
+ * <p>
+ * Platform MBean server outlives web application; statistics MBean should be unregistered on application undeploy, see
+ * {@link RenderMetricsCleaner}, otherwise it keeps application class loader alive. A stale registration left by a
+ * previous deployment is replaced.
+ *
+ * @author Iulian Rotaru
+ * @version draft
+ */
+final class RenderMetrics
+{
+  /** Class logger. */
+  private static final Log log = LogFactory.getLog(RenderMetrics.class);
+
+  /** JMX object name for rendering statistics. */
+  static final String OBJECT_NAME = "com.jslib.fop:type=RenderStatistics";
+
+  /** Built-in rendering statistics. */
+  private static final RenderStatistics statistics = new RenderStatistics();
+
+  /** Registered render listeners, including built-in statistics. */
+  private static final List<RenderListener> listeners = new ArrayList<>();
+  static {
+    listeners.add(statistics);
+    for(RenderListener listener : ServiceLoader.load(RenderListener.class)) {
+      log.debug("Register render listener |{}|.", listener.getClass());
+      listeners.add(listener);
+    }
+    register();
+  }
+
+  /** Prevent default constructor synthesis. */
+  private RenderMetrics()
+  {
+  }
+
+  /**
+   * Register built-in rendering statistics on platform MBean server, replacing existing registration, if any.
+   */
+  static void register()
+  {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(OBJECT_NAME);
+      if(server.isRegistered(name)) {
+        // left by a previous deployment on the same JVM that was not unregistered on undeploy
+        log.warn("Replace stale rendering statistics MBean |{}|.", OBJECT_NAME);
+        server.unregisterMBean(name);
+      }
+      server.registerMBean(statistics, name);
+    }
+    catch(JMException e) {
+      log.warn("Cannot register rendering statistics MBean |{}|: {}", OBJECT_NAME, e);
+    }
+  }
+
+  /**
+   * Unregister built-in rendering statistics from platform MBean server. Does nothing if not registered.
+   */
+  static void unregister()
+  {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(OBJECT_NAME);
+      if(server.isRegistered(name)) {
+        server.unregisterMBean(name);
+      }
+    }
+    catch(JMException e) {
+      log.warn("Cannot unregister rendering statistics MBean |{}|: {}", OBJECT_NAME, e);
+    }
+  }
+
+  /**
+   * Get built-in rendering statistics.
+   *
+   * @return rendering statistics.
+   */
+  public static RenderStatistics getStatistics()
+  {
+    return statistics;
+  }
+
+  /**
+   * Notify listeners about FOP factory creation.
+   *
+   * @param config FOP configuration resource,
+   * @param baseURI resources base URI,
+   * @param durationNanos factory creation duration, in nanoseconds.
+   */
+  public static void fireFactoryCreated(String config, URI baseURI, long durationNanos)
+  {
+    for(RenderListener listener : listeners) {
+      try {
+        listener.onFactoryCreated(config, baseURI, durationNanos);
+      }
+      catch(Throwable throwable) {
+        log.error("Render listener |{}| fails: {}", listener.getClass(), throwable);
+      }
+    }
+  }
+
+  /**
+   * Notify listeners about document rendering.
+   *
+   * @param event rendering timings and results.
+   */
+  public static void fireRender(RenderEvent event)
+  {
+    for(RenderListener listener : listeners) {
+      try {
+        listener.onRender(event);
+      }
+      catch(Throwable throwable) {
+        log.error("Render listener |{}| fails: {}", listener.getClass(), throwable);
+      }
+    }
+  }
+}
@@ -0,0 +1,33 @@
+package com.jslib.fop;
+
+import com.jslib.api.log.Log;
+import com.jslib.api.log.LogFactory;
+
+import jakarta.servlet.ServletContextEvent;
+import jakarta.servlet.ServletContextListener;
+
+/**
+ * Servlet context listener that unregisters rendering statistics MBean when web application is undeployed. Platform
+ * MBean server is shared by all applications from JVM and a registered MBean keeps application class loader alive; see
+ * {@link RenderMetrics}. Declare this listener on application deployment descriptor or with a listener annotation.
+ *
+ * @author Iulian Rotaru
+ * @version draft
+ */
+public final class RenderMetricsCleaner implements ServletContextListener
+{
+  /** Class logger. */
+  private static final Log log = LogFactory.getLog(RenderMetricsCleaner.class);
+
+  @Override
+  public void contextInitialized(ServletContextEvent event)
+  {
+  }
+
+  @Override
+  public void contextDestroyed(ServletContextEvent event)
+  {
+    log.debug("Unregister rendering statistics MBean.");
+    RenderMetrics.unregister();
+  }
+}
@@ -0,0 +1,271 @@
+package com.jslib.fop;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.fop.apps.FOUserAgent;
+
+import com.jslib.api.json.Json;
+import com.jslib.api.log.Log;
+import com.jslib.api.log.LogFactory;
+import com.jslib.container.mvc.ViewMeta;
+import com.jslib.lang.BugError;
+import com.jslib.util.Classes;
+
+/**
+ * Immutable render settings computed once per view meta. View meta properties are parsed and validated when profile is
+ * created, so that rendering hot path does not look up meta properties, load JSON service or parse numbers for every
+ * request, and misconfiguration is reported at first use with {@link BugError}; call {@link #getInstance(ViewMeta)} at
+ * container start for early validation. Profile applies document metadata, target resolution, accessibility and
+ * renderer options to a new user agent in one step, see {@link #configure(FOUserAgent)}.
+ * <p>
+ * Render profile is configured from view meta properties:
+ * <ul>
+ * <li>{@link #PROP_PRODUCER}, {@link #PROP_CREATOR}, {@link #PROP_AUTHOR}, {@link #PROP_TITLE} - document metadata,
+ * <li>{@link #PROP_CREATON_DATE} - document creation date, as JSON date,
+ * <li>{@link #PROP_TARGET_RESOLUTION} - target resolution, in dpi,
+ * <li>{@link #PROP_ACCESSIBILITY} - flag to enable accessibility, that is, tagged PDF, default to false,
+ * <li>{@link #PROP_RENDERER_OPTIONS} - comma separated renderer options, as <code>name:value</code> pairs, e.g.
+ * <code>version:1.5</code>,
+ * <li>{@link #PROP_STREAMING} - flag for template serialization streaming, see {@link TemplateReader},
+ * <li>{@link #PROP_CONCATENATE} - flag for single document rendered from a models collection, see
+ * {@link FoConcatenator},
+ * <li>{@link #PROP_LAZY_ROWS} - flag for table rows pulled lazily from view model row sources, see
+ * {@link TableRowStreamer},
+ * <li>{@link RenderExecutor#PROP_ASYNC} - flag for asynchronous rendering, see {@link RenderExecutor},
+ * <li>{@link RenderExecutor#PROP_TIMEOUT} - render deadline in milliseconds, see {@link RenderCancellation}.
+ * </ul>
+ * Output control, PDF profile and FOP factory settings, including explicit fonts, are also validated and kept by render
+ * profile.
+ *
+ * @author Iulian Rotaru
+ * @version draft
+ */
+final class RenderProfile
+{
+  /** Class logger. */
+  private static final Log log = LogFactory.getLog(RenderProfile.class);
+
+  static final String PROP_PRODUCER = "producer";
+  static final String PROP_CREATOR = "creator";
+  static final String PROP_AUTHOR = "author";
+  static final String PROP_CREATON_DATE = "creation-date";
+  static final String PROP_TITLE = "title";
+  static final String PROP_TARGET_RESOLUTION = "target-resolution";
+  static final String PROP_ACCESSIBILITY = "accessibility";
+  static final String PROP_RENDERER_OPTIONS = "renderer-options";
+  static final String PROP_STREAMING = "streaming";
+  static final String PROP_CONCATENATE = "concatenate";
+  static final String PROP_LAZY_ROWS = "lazy-rows";
+
+  /** Render profiles mapped by view meta instance. */
+  private static final Map<ViewMeta, RenderProfile> profiles = new ConcurrentHashMap<>();
+
+  /**
+   * Get render profile for view meta, creating it on the fly.
+   *
+   * @param meta view meta.
+   * @return view render profile.
+   * @throws BugError if view meta properties are not valid.
+   */
+  public static RenderProfile getInstance(ViewMeta meta)
+  {
+    return profiles.computeIfAbsent(meta, RenderProfile::new);
+  }
+
+  private final String producer;
+  private final String creator;
+  private final String author;
+  private final String title;
+  /** Document creation time, null if not configured. */
+  private final Long creationTime;
+  /** Target resolution, zero if not configured. */
+  private final int targetResolution;
+  private final boolean accessibility;
+  private final Map<String, String> rendererOptions;
+  private final boolean streaming;
+  private final boolean concatenate;
+  private final boolean lazyRows;
+  /** Render timeout, in milliseconds, zero if not configured. */
+  private final long renderTimeout;
+  private final OutputControl outputControl;
+  private final PdfProfile pdfProfile;
+  private final FopFactoryRegistry.FactoryConfig factoryConfig;
+  private final boolean async;
+  /** Identity of the settings that change rendered document, see {@link #getSettingsKey()}. */
+  private final String settingsKey;
+
+  private RenderProfile(ViewMeta meta)
+  {
+    log.debug("Create render profile for view |{}|.", meta.getName());
+    producer = meta.getProperty(PROP_PRODUCER);
+    creator = meta.getProperty(PROP_CREATOR);
+    author = meta.getProperty(PROP_AUTHOR);
+    title = meta.getProperty(PROP_TITLE);
+    accessibility = Boolean.parseBoolean(meta.getProperty(PROP_ACCESSIBILITY));
+    streaming = Boolean.parseBoolean(meta.getProperty(PROP_STREAMING));
+    concatenate = Boolean.parseBoolean(meta.getProperty(PROP_CONCATENATE));
+    lazyRows = Boolean.parseBoolean(meta.getProperty(PROP_LAZY_ROWS));
+    if(concatenate && lazyRows) {
+      throw new BugError("Lazy rows are not supported for concatenated documents, view |%s|.", meta.getName());
+    }
+    pdfProfile = PdfProfile.getInstance(meta);
+    factoryConfig = FopFactoryRegistry.getFactoryConfig(meta, pdfProfile);
+    async = Boolean.parseBoolean(meta.getProperty(RenderExecutor.PROP_ASYNC));
+
+    if(meta.hasProperty(PROP_CREATON_DATE)) {
+      Json json = Classes.loadService(Json.class);
+      Date creationDate;
+      try {
+        creationDate = (Date)json.parse(meta.getProperty(PROP_CREATON_DATE), Date.class);
+      }
+      catch(Exception e) {
+        throw new BugError("Invalid creation date |%s| for view |%s|.", meta.getProperty(PROP_CREATON_DATE), meta.getName());
+      }
+      creationTime = creationDate.getTime();
+    }
+    else {
+      creationTime = null;
+    }
+
+    try {
+      targetResolution = meta.hasProperty(PROP_TARGET_RESOLUTION) ? Integer.parseInt(meta.getProperty(PROP_TARGET_RESOLUTION)) : 0;
+      renderTimeout = meta.hasProperty(RenderExecutor.PROP_TIMEOUT) ? Long.parseLong(meta.getProperty(RenderExecutor.PROP_TIMEOUT)) : 0;
+      outputControl = OutputControl.getInstance(meta);
+    }
+    catch(NumberFormatException e) {
+      throw new BugError("Invalid numeric property for view |%s|: %s", meta.getName(), e.getMessage());
+    }
+
+    Map<String, String> options = new HashMap<>();
+    if(meta.hasProperty(PROP_RENDERER_OPTIONS)) {
+      for(String option : meta.getProperty(PROP_RENDERER_OPTIONS).split(",")) {
+        int separatorIndex = option.indexOf(':');
+        if(separatorIndex <= 0) {
+          throw new BugError("Invalid renderer option |%s| for view |%s|.", option.trim(), meta.getName());
+        }
+        options.put(option.substring(0, separatorIndex).trim(), option.substring(separatorIndex + 1).trim());
+      }
+    }
+    rendererOptions = Collections.unmodifiableMap(options);
+
+    StringBuilder settings = new StringBuilder();
+    settings.append(meta.getProperty(OutputControl.PROP_PAGE_RANGE)).append('|');
+    settings.append(pdfProfile).append('|');
+    settings.append(targetResolution).append('|');
+    settings.append(accessibility).append('|');
+    settings.append(new TreeMap<>(options)).append('|');
+    settings.append(producer).append('|').append(creator).append('|').append(author).append('|').append(title).append('|').append(creationTime);
+    settingsKey = settings.toString();
+  }
+
+  /**
+   * Apply this profile settings to a new user agent.
+   *
+   * @param agent user agent.
+   */
+  @SuppressWarnings("unchecked")
+  public void configure(FOUserAgent agent)
+  {
+    if(producer != null) {
+      agent.setProducer(producer);
+    }
+    if(creator != null) {
+      agent.setCreator(creator);
+    }
+    if(author != null) {
+      agent.setAuthor(author);
+    }
+    if(creationTime != null) {
+      // user agent creation date is mutable; every agent has its own instance
+      agent.setCreationDate(new Date(creationTime));
+    }
+    if(title != null) {
+      agent.setTitle(title);
+    }
+    if(targetResolution > 0) {
+      agent.setTargetResolution(targetResolution);
+    }
+    if(accessibility) {
+      agent.setAccessibility(true);
+    }
+    if(!rendererOptions.isEmpty()) {
+      agent.getRendererOptions().putAll(rendererOptions);
+    }
+  }
+
+  /** Test if target resolution is configured by view meta. */
+  public boolean hasTargetResolution()
+  {
+    return targetResolution > 0;
+  }
+
+  /** Test if template serialization is streamed. */
+  public boolean isStreaming()
+  {
+    return streaming;
+  }
+
+  /** Test if document is concatenated from a models collection. */
+  public boolean isConcatenate()
+  {
+    return concatenate;
+  }
+
+  /**
+   * Test if table rows are pulled lazily from view model row sources. Since row sources are consumed once, model
+   * cannot be fingerprinted and render and intermediate format caches are not used.
+   */
+  public boolean isLazyRows()
+  {
+    return lazyRows;
+  }
+
+  /**
+   * Get render timeout in milliseconds, zero if not configured by view meta. Rendering is cancelled when timeout
+   * expires, on both synchronous and asynchronous modes; asynchronous renders with no explicit timeout are still bounded
+   * by render executor default timeout.
+   */
+  public long getRenderTimeout()
+  {
+    return renderTimeout;
+  }
+
+  /** Get output control. */
+  public OutputControl getOutputControl()
+  {
+    return outputControl;
+  }
+
+  /** Get PDF size profile, meaningful only for PDF views. */
+  public PdfProfile getPdfProfile()
+  {
+    return pdfProfile;
+  }
+
+  /** Get FOP factory settings: registry key, configuration source, explicit fonts and images to preload. */
+  public FopFactoryRegistry.FactoryConfig getFactoryConfig()
+  {
+    return factoryConfig;
+  }
+
+  /** Test if view is rendered by {@link RenderExecutor}. */
+  public boolean isAsync()
+  {
+    return async;
+  }
+
+  /**
+   * Get identity of the settings that change rendered document: page range, PDF profile, target resolution,
+   * accessibility, renderer options and document metadata. Used by render cache so that views on the same template
+   * but with different settings do not share cached documents.
+   */
+  public String getSettingsKey()
+  {
+    return settingsKey;
+  }
+}
@@ -0,0 +1,199 @@
+package com.jslib.fop;
+
+import java.net.URI;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Built-in render listener that aggregates rendering statistics and exposes them on JMX. Statistics are cumulative since
+ * JVM start or last {@link #reset()}. For latency percentiles use a metrics library bridge, see {@link RenderListener}.
+ *
+ * @author Iulian Rotaru
+ * @version draft
+ */
+public final class RenderStatistics implements RenderStatisticsMBean, RenderListener
+{
+  private final LongAdder renderCount = new LongAdder();
+  private final LongAdder failureCount = new LongAdder();
+  private final LongAdder cancelledCount = new LongAdder();
+  private final LongAdder renderNanos = new LongAdder();
+  private final LongAccumulator maxRenderNanos = new LongAccumulator(Long::max, 0);
+  private final LongAdder templateLoadNanos = new LongAdder();
+  private final LongAdder templateSerializeNanos = new LongAdder();
+  private final LongAdder bytesWritten = new LongAdder();
+  private final LongAdder pageCount = new LongAdder();
+  private final LongAdder factoryCreationCount = new LongAdder();
+  private final LongAdder factoryCreationNanos = new LongAdder();
+
+  RenderStatistics()
+  {
+  }
+
+  @Override
+  public void onFactoryCreated(String config, URI baseURI, long durationNanos)
+  {
+    factoryCreationCount.increment();
+    factoryCreationNanos.add(durationNanos);
+  }
+
+  @Override
+  public void onRender(RenderEvent event)
+  {
+    renderCount.increment();
+    // cancelled renders are not counted as failures
+    if(event.isCancelled()) {
+      cancelledCount.increment();
+    }
+    else if(event.isFailed()) {
+      failureCount.increment();
+    }
+    renderNanos.add(event.getTotalNanos());
+    maxRenderNanos.accumulate(event.getTotalNanos());
+    templateLoadNanos.add(event.getTemplateLoadNanos());
+    templateSerializeNanos.add(event.getTemplateSerializeNanos());
+    bytesWritten.add(event.getBytesWritten());
+    pageCount.add(event.getPageCount());
+  }
+
+  @Override
+  public long getRenderCount()
+  {
+    return renderCount.sum();
+  }
+
+  @Override
+  public long getFailureCount()
+  {
+    return failureCount.sum();
+  }
+
+  @Override
+  public long getCancelledCount()
+  {
+    return cancelledCount.sum();
+  }
+
+  @Override
+  public double getAverageRenderTimeMillis()
+  {
+    return average(renderNanos);
+  }
+
+  @Override
+  public double getMaxRenderTimeMillis()
+  {
+    return maxRenderNanos.get() / 1e6;
+  }
+
+  @Override
+  public double getAverageTemplateLoadTimeMillis()
+  {
+    return average(templateLoadNanos);
+  }
+
+  @Override
+  public double getAverageTemplateSerializeTimeMillis()
+  {
+    return average(templateSerializeNanos);
+  }
+
+  @Override
+  public long getBytesWritten()
+  {
+    return bytesWritten.sum();
+  }
+
+  @Override
+  public long getPageCount()
+  {
+    return pageCount.sum();
+  }
+
+  @Override
+  public long getFactoryCreationCount()
+  {
+    return factoryCreationCount.sum();
+  }
+
+  @Override
+  public double getFactoryCreationTimeMillis()
+  {
+    return factoryCreationNanos.sum() / 1e6;
+  }
+
+  @Override
+  public long getFactoryCacheHitCount()
+  {
+    return FopFactoryRegistry.getHitCount();
+  }
+
+  @Override
+  public long getTemplateCacheHitCount()
+  {
+    return TemplateCache.instance().getHitCount();
+  }
+
+  @Override
+  public long getTemplateCacheMissCount()
+  {
+    return TemplateCache.instance().getMissCount();
+  }
+
+  @Override
+  public long getResourceCacheHitCount()
+  {
+    return ResourceCache.instance().getHitCount();
+  }
+
+  @Override
+  public long getResourceCacheMissCount()
+  {
+    return ResourceCache.instance().getMissCount();
+  }
+
+  @Override
+  public long getImageCacheHitCount()
+  {
+    return ResourceCache.instance().getImageHitCount();
+  }
+
+  @Override
+  public long getImageCacheMissCount()
+  {
+    return ResourceCache.instance().getImageMissCount();
+  }
+
+  @Override
+  public long getIntermediateCacheHitCount()
+  {
+    return IntermediateCache.instance().getHitCount();
+  }
+
+  @Override
+  public long getIntermediateCacheMissCount()
+  {
+    return IntermediateCache.instance().getMissCount();
+  }
+
+  @Override
+  public void reset()
+  {
+    renderCount.reset();
+    failureCount.reset();
+    cancelledCount.reset();
+    renderNanos.reset();
+    maxRenderNanos.reset();
+    templateLoadNanos.reset();
+    templateSerializeNanos.reset();
+    bytesWritten.reset();
+    pageCount.reset();
+    factoryCreationCount.reset();
+    factoryCreationNanos.reset();
+  }
+
+  private double average(LongAdder nanos)
+  {
+    long count = renderCount.sum();
+    return count > 0 ? nanos.sum() / 1e6 / count : 0;
+  }
+}
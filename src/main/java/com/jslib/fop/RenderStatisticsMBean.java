@@ -0,0 +1,53 @@
+package com.jslib.fop;
+
+/**
+ * Management interface for rendering statistics, published on JMX with object name
+ * <code>com.jslib.fop:type=RenderStatistics</code>.
+ *
+ * @author Iulian Rotaru
+ * @version draft
+ */
+public interface RenderStatisticsMBean
+{
+  long getRenderCount();
+
+  long getFailureCount();
+
+  long getCancelledCount();
+
+  double getAverageRenderTimeMillis();
+
+  double getMaxRenderTimeMillis();
+
+  double getAverageTemplateLoadTimeMillis();
+
+  double getAverageTemplateSerializeTimeMillis();
+
+  long getBytesWritten();
+
+  long getPageCount();
+
+  long getFactoryCreationCount();
+
+  double getFactoryCreationTimeMillis();
+
+  long getFactoryCacheHitCount();
+
+  long getTemplateCacheHitCount();
+
+  long getTemplateCacheMissCount();
+
+  long getResourceCacheHitCount();
+
+  long getResourceCacheMissCount();
+
+  long getImageCacheHitCount();
+
+  long getImageCacheMissCount();
+
+  long getIntermediateCacheHitCount();
+
+  long getIntermediateCacheMissCount();
+
+  void reset();
+}
@@ -0,0 +1,370 @@
+package com.jslib.fop;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.lang.reflect.Constructor;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.fop.apps.FOUserAgent;
+import org.apache.fop.apps.FopFactory;
+
+import com.jslib.api.log.Log;
+import com.jslib.api.log.LogFactory;
+import com.jslib.container.mvc.View;
+import com.jslib.container.mvc.ViewMeta;
+import com.jslib.lang.BugError;
+
+/**
+ * Render worker process serving {@link RenderWorkerPool} requests over a local socket. Worker receives serialized FO
+ * document and the view meta properties relevant to rendering, lays out and renders the document with its own FOP
+ * factories and streams rendered document back, see {@link WorkerProtocol}. Since layout heap and garbage collection
+ * are confined to worker process, a pathological document does not pause the web container.
+ * <p>
+ * Worker rebuilds view meta from forwarded properties and keeps it for subsequent requests, so that FOP factories,
+ * fonts, images and render profiles stay warm; view format specific user agent setup is delegated to the view class
+ * that sent the request. Every connection carries one render request and is served on a dedicated thread, up to
+ * available processors.
+ *
+ * <pre>
+ * java -Dcom.jslib.fop.render-worker-templates=/app/templates -cp app.jar com.jslib.fop.RenderWorker 9701
+ * </pre>
+ *
+ * Worker listens on loopback interface unless a bind address is given as second argument. Worker is configured from
+ * system properties:
+ * <ul>
+ * <li>{@link #PROP_TEMPLATE_ROOTS} - template directories, separated by path separator; worker renders only templates
+ * and FOP configuration files from these directories,
+ * <li>{@link #PROP_SECRET} - secret shared with render worker pool, mandatory if worker does not listen on loopback,
+ * <li>{@link #PROP_MAX_METAS} - maximum number of distinct view metas kept by worker, default to
+ * {@link #DEFAULT_MAX_METAS}.
+ * </ul>
+ * Serialized FO document is trusted: it is rendered with worker file system access, e.g. for external graphics. Shared
+ * secret is the only protection against untrusted peers and this is why it is required for non loopback addresses;
+ * peers prove they know it by answering a challenge, see {@link WorkerProtocol}, so that secret is not sent on network.
+ *
+ * @author Iulian Rotaru
+ * @version draft
+ */
+public final class RenderWorker implements Closeable
+{
+  /** Class logger. */
+  private static final Log log = LogFactory.getLog(RenderWorker.class);
+
+  static final String PROP_TEMPLATE_ROOTS = "com.jslib.fop.render-worker-templates";
+  static final String PROP_SECRET = "com.jslib.fop.render-worker-secret";
+  static final String PROP_MAX_METAS = "com.jslib.fop.render-worker-max-metas";
+
+  static final int DEFAULT_MAX_METAS = 1024;
+
+  /**
+   * Maximum number of view metas. View metas are not evicted since render profiles and FOP factories are mapped by view
+   * meta; requests for new view metas are rejected when limit is reached.
+   */
+  private static final int MAX_METAS = Integer.getInteger(PROP_MAX_METAS, DEFAULT_MAX_METAS);
+
+  /**
+   * Start render worker on port and optional bind address given by command line arguments. This method does not return
+   * till worker process is terminated.
+   *
+   * @param args port and optional bind address.
+   * @throws IOException if server socket cannot be opened.
+   */
+  public static void main(String... args) throws IOException
+  {
+    if(args.length == 0) {
+      System.err.println("Usage: RenderWorker port [bind-address]");
+      System.exit(1);
+    }
+    InetAddress bindAddress = args.length > 1 ? InetAddress.getByName(args[1]) : InetAddress.getLoopbackAddress();
+    String templateRoots = System.getProperty(PROP_TEMPLATE_ROOTS);
+    if(templateRoots == null) {
+      System.err.printf("Missing %s system property.%n", PROP_TEMPLATE_ROOTS);
+      System.exit(1);
+    }
+    List<File> roots = new ArrayList<>();
+    for(String root : templateRoots.split(File.pathSeparator)) {
+      roots.add(new File(root));
+    }
+    RenderWorker worker = new RenderWorker(new InetSocketAddress(bindAddress, Integer.parseInt(args[0])), roots, System.getProperty(PROP_SECRET));
+    worker.run();
+  }
+
+  /** View meta rebuilt from forwarded properties, mapped by view class, template file and properties. Bounded. */
+  private final Map<String, ViewMeta> metas = new ConcurrentHashMap<>();
+
+  /** Views used for format specific user agent setup, mapped by view class name. */
+  private final Map<String, FoView> views = new ConcurrentHashMap<>();
+
+  /** Canonical template directories. */
+  private final List<Path> templateRoots;
+
+  /** Shared secret bytes, null if worker does not require authentication. */
+  private final byte[] secret;
+
+  private final ServerSocket serverSocket;
+
+  private final ExecutorService executor;
+
+  /**
+   * Create render worker listening on given address. Use port zero for an ephemeral port, see {@link #getAddress()}.
+   *
+   * @param address socket address to listen on,
+   * @param templateRoots directories allowed for templates and FOP configuration files,
+   * @param secret secret shared with render worker pool, null if not used.
+   * @throws IOException if server socket cannot be opened.
+   * @throws BugError if there are no template directories or secret is missing for a non loopback address.
+   */
+  public RenderWorker(InetSocketAddress address, List<File> templateRoots, String secret) throws IOException
+  {
+    if(templateRoots.isEmpty()) {
+      throw new BugError("Render worker requires template directories.");
+    }
+    if((secret == null || secret.isEmpty()) && (address.getAddress() == null || !address.getAddress().isLoopbackAddress())) {
+      throw new BugError("Render worker on non loopback address |%s| requires shared secret.", address);
+    }
+    List<Path> roots = new ArrayList<>();
+    for(File root : templateRoots) {
+      roots.add(root.getCanonicalFile().toPath());
+    }
+    this.templateRoots = Collections.unmodifiableList(roots);
+    this.secret = secret != null && !secret.isEmpty() ? secret.getBytes(StandardCharsets.UTF_8) : null;
+    serverSocket = new ServerSocket();
+    serverSocket.bind(address);
+    executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new DaemonThreadFactory("fo-worker-"));
+    log.info("Render worker listening on |{}|.", getAddress());
+  }
+
+  /** Get address this worker listens on. */
+  public InetSocketAddress getAddress()
+  {
+    return (InetSocketAddress)serverSocket.getLocalSocketAddress();
+  }
+
+  /** Start accepting connections on a background thread. */
+  public void start()
+  {
+    new DaemonThreadFactory("fo-worker-accept-").newThread(this::run).start();
+  }
+
+  /** Accept connections on current thread till this worker is closed. */
+  public void run()
+  {
+    while(!serverSocket.isClosed()) {
+      Socket socket;
+      try {
+        socket = serverSocket.accept();
+      }
+      catch(IOException e) {
+        if(!serverSocket.isClosed()) {
+          log.error("Render worker accept failure: {}", e.getMessage());
+        }
+        continue;
+      }
+      executor.execute(() -> serve(socket));
+    }
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    serverSocket.close();
+    executor.shutdownNow();
+  }
+
+  /**
+   * Serve a render request and close connection. Rendering failures are reported to pool with error frame.
+   *
+   * @param socket client connection.
+   */
+  private void serve(Socket socket)
+  {
+    try (Socket connection = socket) {
+      connection.setTcpNoDelay(true);
+      DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream(), WorkerProtocol.FRAME_SIZE));
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream(), WorkerProtocol.FRAME_SIZE));
+
+      // peer is not trusted till it proves it knows the shared secret, by answering the challenge with HMAC of nonce
+      byte[] nonce = WorkerProtocol.newNonce();
+      WorkerProtocol.writeBytes(out, nonce);
+      out.flush();
+      byte[] answer = WorkerProtocol.readBytes(in, WorkerProtocol.ANSWER_SIZE);
+      if(secret != null && !MessageDigest.isEqual(WorkerProtocol.answer(secret, nonce), answer)) {
+        log.warn("Reject render worker connection from |{}|: invalid secret.", connection.getRemoteSocketAddress());
+        new WorkerProtocol.FrameOutputStream(out).fail("Render worker authentication failed.");
+        return;
+      }
+
+      String viewClass = in.readUTF();
+      String templatePath = in.readUTF();
+      String mimeType = in.readUTF();
+      Map<String, String> properties = new TreeMap<>();
+      for(int count = in.readInt(); count > 0; --count) {
+        properties.put(in.readUTF(), in.readUTF());
+      }
+
+      WorkerProtocol.FrameInputStream fo = new WorkerProtocol.FrameInputStream(in);
+      WorkerProtocol.FrameOutputStream document = new WorkerProtocol.FrameOutputStream(out);
+      try {
+        int pageCount = render(viewClass, templatePath, mimeType, properties, new InputStreamReader(fo, StandardCharsets.UTF_8), document);
+        document.close();
+        out.writeInt(pageCount);
+      }
+      catch(Exception e) {
+        log.error("Render worker failure for template |{}|: {}", templatePath, e);
+        document.fail(e.getMessage() != null ? e.getMessage() : e.getClass().getName());
+      }
+      out.flush();
+
+      // FO parser may stop before end frame; consume FO remainder so that closing socket does not reset connection
+      // before pool reads the response
+      WorkerProtocol.copy(fo, OutputStream.nullOutputStream());
+    }
+    catch(SocketException e) {
+      log.debug("Render worker connection closed by peer: {}", e.getMessage());
+    }
+    catch(IOException e) {
+      log.error("Render worker connection failure: {}", e.getMessage());
+    }
+  }
+
+  /**
+   * Render FO document the same way as view from web container would do it locally.
+   *
+   * @param viewClass class name of the view that sent the request,
+   * @param templatePath absolute path of the template file,
+   * @param mimeType output format MIME type,
+   * @param properties view meta properties relevant to rendering,
+   * @param foReader serialized FO document,
+   * @param document rendered document frames.
+   * @return rendered document pages count.
+   * @throws IOException if rendering fails.
+   */
+  private int render(String viewClass, String templatePath, String mimeType, Map<String, String> properties, Reader foReader, WorkerProtocol.FrameOutputStream document) throws IOException
+  {
+    long start = System.nanoTime();
+    // view meta is cached only after validation, so that invalid requests are rejected every time
+    String metaKey = viewClass + '|' + templatePath + '|' + properties;
+    ViewMeta meta = metas.get(metaKey);
+    if(meta == null) {
+      if(metas.size() >= MAX_METAS) {
+        throw new BugError("Render worker view metas limit |%d| reached.", MAX_METAS);
+      }
+      File templateFile = checkPath(new File(templatePath));
+      if(properties.containsKey(FopFactoryRegistry.PROP_FOP_CONFIG)) {
+        checkPath(templateFile.toPath().getParent().resolve(properties.get(FopFactoryRegistry.PROP_FOP_CONFIG)).toFile());
+      }
+      meta = createMeta(getViewClass(viewClass), templateFile, properties);
+      // keep view meta created first by concurrent requests, since render profiles are mapped by view meta instance
+      ViewMeta existingMeta = metas.putIfAbsent(metaKey, meta);
+      if(existingMeta != null) {
+        meta = existingMeta;
+      }
+    }
+    FoView view = views.computeIfAbsent(viewClass, className -> createView(getViewClass(className)));
+
+    RenderProfile profile = RenderProfile.getInstance(meta);
+    OutputControl outputControl = view.getOutputControl(profile);
+    FopFactory fopFactory = FopFactoryRegistry.getFopFactory(meta);
+
+    FOUserAgent agent = fopFactory.newFOUserAgent();
+    profile.configure(agent);
+    view.configure(agent, profile);
+    // pool closes connection when its client disconnects; failed write aborts layout, see RenderCancellation
+    RenderCancellation cancellation = new RenderCancellation(profile.getRenderTimeout());
+    OutputStream outputStream = cancellation.monitor(document);
+    outputControl.configure(fopFactory, agent, mimeType, outputStream);
+
+    int pageCount = FoRenderer.getPageCount(FoRenderer.render(fopFactory, mimeType, agent, foReader, outputStream, cancellation::filter));
+    log.debug("Render worker processed template |{}| in {processing_time} msec.", templatePath, (System.nanoTime() - start) / 1000000);
+    return pageCount;
+  }
+
+  /**
+   * Ensure file is inside one of the template directories.
+   *
+   * @param file file requested by peer.
+   * @return canonical file.
+   * @throws IOException if file path cannot be resolved.
+   * @throws BugError if file is outside template directories.
+   */
+  private File checkPath(File file) throws IOException
+  {
+    File canonicalFile = file.getCanonicalFile();
+    for(Path root : templateRoots) {
+      if(canonicalFile.toPath().startsWith(root)) {
+        return canonicalFile;
+      }
+    }
+    throw new BugError("File |%s| is outside render worker template directories.", file);
+  }
+
+  /**
+   * Load view class without initialization and ensure it is a FO view, before any of its code runs.
+   *
+   * @param className view class name requested by peer.
+   * @return view class.
+   * @throws BugError if class is missing or is not a FO view.
+   */
+  private static Class<? extends FoView> getViewClass(String className)
+  {
+    Class<?> viewClass;
+    try {
+      viewClass = Class.forName(className, false, RenderWorker.class.getClassLoader());
+    }
+    catch(ClassNotFoundException e) {
+      throw new BugError("Missing view class |%s| on render worker.", className);
+    }
+    if(!FoView.class.isAssignableFrom(viewClass)) {
+      throw new BugError("Class |%s| is not a FO view.", className);
+    }
+    return viewClass.asSubclass(FoView.class);
+  }
+
+  private static ViewMeta createMeta(Class<? extends View> viewClass, File templateFile, Map<String, String> properties)
+  {
+    Properties metaProperties = new Properties();
+    metaProperties.putAll(properties);
+    try {
+      return new ViewMeta(templateFile, viewClass, metaProperties);
+    }
+    catch(Exception e) {
+      throw new BugError("Cannot create view meta for |%s| on render worker: %s", templateFile, e);
+    }
+  }
+
+  private static FoView createView(Class<? extends FoView> viewClass)
+  {
+    try {
+      Constructor<? extends FoView> constructor = viewClass.getDeclaredConstructor();
+      constructor.setAccessible(true);
+      return constructor.newInstance();
+    }
+    catch(ReflectiveOperationException e) {
+      throw new BugError("Cannot create view |%s| on render worker: %s", viewClass, e);
+    }
+  }
+}
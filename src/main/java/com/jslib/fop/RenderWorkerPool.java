@@ -0,0 +1,302 @@
+package com.jslib.fop;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.jslib.api.log.Log;
+import com.jslib.api.log.LogFactory;
+import com.jslib.container.mvc.ViewMeta;
+import com.jslib.lang.BugError;
+
+/**
+ * Client for out of process rendering on {@link RenderWorker} processes. View hands serialized FO document over a
+ * socket to a render worker and copies rendered document to its output stream while worker produces it; FOP layout heap
+ * and garbage collection pauses are moved out of web container. Workers may run on the same host or on other nodes.
+ * <p>
+ * Worker is selected by template affinity: all documents from a template are rendered by the same worker, so that its
+ * FOP factories, fonts and images stay warm. If selected worker is not reachable, next worker is tried. Only view meta
+ * properties relevant to rendering are forwarded to worker, see {@link #FORWARDED_PROPERTIES}; render cache, spool and
+ * output limits are still applied by the view.
+ * <p>
+ * Workers are configured by {@link #PROP_WORKERS} system property, comma separated <code>host:port</code> addresses,
+ * and render worker mode is enabled per view by {@link #PROP_RENDER_WORKER} view meta flag. Pool authenticates with
+ * secret from {@link RenderWorker#PROP_SECRET} system property, if set, by answering worker challenge, so that secret
+ * is not sent on network. A worker that does not respond within view render timeout or, if not configured,
+ * {@link #PROP_READ_TIMEOUT} milliseconds fails the render. Concatenated documents and lazy table rows need view model
+ * at layout and are always rendered locally.
+ *
+ * @author Iulian Rotaru
+ * @version draft
+ */
+final class RenderWorkerPool
+{
+  /** Class logger. */
+  private static final Log log = LogFactory.getLog(RenderWorkerPool.class);
+
+  static final String PROP_WORKERS = "com.jslib.fop.render-workers";
+  static final String PROP_CONNECT_TIMEOUT = "com.jslib.fop.render-worker-connect-timeout";
+  static final String PROP_READ_TIMEOUT = "com.jslib.fop.render-worker-read-timeout";
+
+  static final String PROP_RENDER_WORKER = "render-worker";
+
+  /** View meta properties forwarded to render worker. */
+  static final String[] FORWARDED_PROPERTIES = new String[]
+  {
+      FopFactoryRegistry.PROP_FOP_CONFIG, //
+      FontConfig.PROP_FONT_BASE, //
+      FontConfig.PROP_FONTS, //
+      FontConfig.PROP_FONT_DIRECTORY, //
+      FontConfig.PROP_FONT_EMBEDDING, //
+      PdfProfile.PROP_PDF_PROFILE, //
+      ResourceCache.PROP_PRELOAD_IMAGES, //
+      RenderProfile.PROP_PRODUCER, //
+      RenderProfile.PROP_CREATOR, //
+      RenderProfile.PROP_AUTHOR, //
+      RenderProfile.PROP_CREATON_DATE, //
+      RenderProfile.PROP_TITLE, //
+      RenderProfile.PROP_TARGET_RESOLUTION, //
+      RenderProfile.PROP_ACCESSIBILITY, //
+      RenderProfile.PROP_RENDERER_OPTIONS, //
+      OutputControl.PROP_FLUSH_PAGES, //
+      OutputControl.PROP_MAX_PAGES, //
+      OutputControl.PROP_PAGE_RANGE, //
+      RenderExecutor.PROP_TIMEOUT
+  };
+
+  private static final int CONNECT_TIMEOUT = Integer.getInteger(PROP_CONNECT_TIMEOUT, 2000);
+  private static final int READ_TIMEOUT = Integer.getInteger(PROP_READ_TIMEOUT, (int)RenderExecutor.DEFAULT_TIMEOUT);
+
+  /** Pool instance shared by all views, null if no render workers are configured. */
+  private static final RenderWorkerPool instance = create(System.getProperty(PROP_WORKERS));
+
+  /**
+   * Get render worker pool if render worker mode is enabled for view described by given meta.
+   *
+   * @param meta view meta.
+   * @return shared render worker pool or null if view is rendered locally.
+   * @throws BugError if render worker mode is enabled but no render workers are configured.
+   */
+  public static RenderWorkerPool getInstance(ViewMeta meta)
+  {
+    if(!Boolean.parseBoolean(meta.getProperty(PROP_RENDER_WORKER))) {
+      return null;
+    }
+    if(instance == null) {
+      throw new BugError("Render worker mode enabled for view |%s| but no render workers configured by |%s| system property.", meta.getName(), PROP_WORKERS);
+    }
+    return instance;
+  }
+
+  private static RenderWorkerPool create(String workers)
+  {
+    if(workers == null || workers.trim().isEmpty()) {
+      return null;
+    }
+    List<InetSocketAddress> addresses = new ArrayList<>();
+    for(String worker : workers.split(",")) {
+      worker = worker.trim();
+      int separatorIndex = worker.lastIndexOf(':');
+      if(separatorIndex <= 0) {
+        throw new BugError("Invalid render worker address |%s|.", worker);
+      }
+      addresses.add(InetSocketAddress.createUnresolved(worker.substring(0, separatorIndex), Integer.parseInt(worker.substring(separatorIndex + 1))));
+    }
+    return new RenderWorkerPool(addresses, System.getProperty(RenderWorker.PROP_SECRET));
+  }
+
+  /** Render worker addresses. */
+  private final List<InetSocketAddress> workers;
+
+  /** Secret shared with render workers, null if not used. */
+  private final byte[] secret;
+
+  /** Threads sending FO documents to workers while view thread copies rendered documents. */
+  private final ExecutorService senders;
+
+  RenderWorkerPool(List<InetSocketAddress> workers, String secret)
+  {
+    log.debug("Create render worker pool for |{}|.", workers);
+    this.workers = Collections.unmodifiableList(new ArrayList<>(workers));
+    this.secret = secret != null && !secret.isEmpty() ? secret.getBytes(StandardCharsets.UTF_8) : null;
+    this.senders = Executors.newCachedThreadPool(new DaemonThreadFactory("fo-worker-send-"));
+  }
+
+  /**
+   * Render FO document on a render worker selected by template affinity and copy rendered document to output stream.
+   * FO document is sent on a separate thread, so that a worker writing rendered pages before reading entire FO document
+   * does not block.
+   *
+   * @param meta view meta,
+   * @param viewClass view class, used by worker for format specific user agent setup,
+   * @param mimeType output format MIME type,
+   * @param foReader serialized FO document,
+   * @param outputStream rendered document output stream.
+   * @return rendered document pages count.
+   * @throws IOException if no render worker is reachable, worker does not respond in time, worker rendering fails or
+   *           output stream writing fails.
+   */
+  public int render(ViewMeta meta, Class<?> viewClass, String mimeType, Reader foReader, OutputStream outputStream) throws IOException
+  {
+    String templatePath = meta.getTemplateFile().getAbsolutePath();
+    Socket socket = connect(templatePath);
+    Future<?> sender = null;
+    try {
+      // view waits on worker with no output writes, so render timeout is not checked by cancellation; a hung or
+      // partitioned worker should not block view thread forever
+      long renderTimeout = RenderProfile.getInstance(meta).getRenderTimeout();
+      socket.setSoTimeout(renderTimeout > 0 ? (int)Math.min(renderTimeout, Integer.MAX_VALUE) : READ_TIMEOUT);
+
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), WorkerProtocol.FRAME_SIZE));
+      DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), WorkerProtocol.FRAME_SIZE));
+
+      // answer worker challenge before sending request; shared secret itself is never sent, see WorkerProtocol
+      byte[] nonce = WorkerProtocol.readBytes(in, WorkerProtocol.NONCE_SIZE);
+      WorkerProtocol.writeBytes(out, WorkerProtocol.answer(secret, nonce));
+
+      sender = senders.submit(() -> {
+        try {
+          send(out, meta, viewClass.getName(), templatePath, mimeType, foReader);
+        }
+        catch(IOException | RuntimeException e) {
+          // worker is waiting for FO frames; closing socket aborts its rendering
+          socket.close();
+          throw e;
+        }
+        return null;
+      });
+
+      WorkerProtocol.copy(new WorkerProtocol.FrameInputStream(in), outputStream);
+      int pageCount = in.readInt();
+
+      // worker consumes FO document till end frame, so sender completes even if FO parser stopped at root element end
+      Throwable sendFailure = await(sender);
+      if(sendFailure != null) {
+        log.debug("Render worker request failure after complete response: {}", sendFailure);
+      }
+      return pageCount;
+    }
+    catch(SocketTimeoutException e) {
+      throw new IOException(String.format("Render worker timeout for template |%s|.", templatePath), e);
+    }
+    catch(IOException e) {
+      // broken response may be caused by request sending failure, e.g. template serialization on streaming mode
+      socket.close();
+      Throwable sendFailure = sender != null ? await(sender) : null;
+      throw sendFailure != null ? new IOException(sendFailure) : e;
+    }
+    finally {
+      // closing socket unblocks sender, if still running; FO reader is closed by view only after sender is done
+      socket.close();
+      if(sender != null) {
+        await(sender);
+      }
+    }
+  }
+
+  /**
+   * Wait for request sender completion.
+   *
+   * @param sender request sender.
+   * @return sender failure or null if request was sent successfully.
+   * @throws InterruptedIOException if current thread is interrupted while waiting.
+   */
+  private static Throwable await(Future<?> sender) throws InterruptedIOException
+  {
+    try {
+      sender.get();
+      return null;
+    }
+    catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+    catch(ExecutionException e) {
+      return e.getCause();
+    }
+  }
+
+  /**
+   * Connect to render worker selected by template affinity, trying next workers if selected one is not reachable.
+   *
+   * @param templatePath template file path.
+   * @return connected socket.
+   * @throws IOException if no render worker is reachable.
+   */
+  private Socket connect(String templatePath) throws IOException
+  {
+    int index = Math.floorMod(templatePath.hashCode(), workers.size());
+    IOException failure = null;
+    for(int i = 0; i < workers.size(); ++i) {
+      InetSocketAddress address = workers.get((index + i) % workers.size());
+      if(address.isUnresolved()) {
+        address = new InetSocketAddress(address.getHostString(), address.getPort());
+      }
+      Socket socket = new Socket();
+      try {
+        socket.connect(address, CONNECT_TIMEOUT);
+        socket.setTcpNoDelay(true);
+        return socket;
+      }
+      catch(IOException e) {
+        socket.close();
+        log.warn("Render worker |{}| not reachable: {}", address, e.getMessage());
+        failure = e;
+      }
+    }
+    throw new ConnectException(String.format("No render worker reachable for template |%s|: %s", templatePath, failure.getMessage()));
+  }
+
+  /**
+   * Send render request to worker: request header, forwarded view meta properties and FO document frames.
+   *
+   * @throws IOException if FO reading or socket writing fails.
+   */
+  private static void send(DataOutputStream out, ViewMeta meta, String viewClass, String templatePath, String mimeType, Reader foReader) throws IOException
+  {
+    out.writeUTF(viewClass);
+    out.writeUTF(templatePath);
+    out.writeUTF(mimeType);
+
+    List<String> properties = new ArrayList<>();
+    for(String property : FORWARDED_PROPERTIES) {
+      if(meta.hasProperty(property)) {
+        properties.add(property);
+      }
+    }
+    out.writeInt(properties.size());
+    for(String property : properties) {
+      out.writeUTF(property);
+      out.writeUTF(meta.getProperty(property));
+    }
+
+    WorkerProtocol.FrameOutputStream frames = new WorkerProtocol.FrameOutputStream(out);
+    Writer writer = new OutputStreamWriter(frames, StandardCharsets.UTF_8);
+    char[] buffer = new char[WorkerProtocol.FRAME_SIZE / 4];
+    int length;
+    while((length = foReader.read(buffer)) != -1) {
+      writer.write(buffer, 0, length);
+    }
+    // closing writer writes end frame but keeps socket open for response
+    writer.close();
+  }
+}
@@ -0,0 +1,340 @@
+package com.jslib.fop;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.fop.apps.FopFactory;
+import org.apache.xmlgraphics.image.loader.ImageException;
+import org.apache.xmlgraphics.image.loader.ImageManager;
+import org.apache.xmlgraphics.image.loader.ImageSessionContext;
+import org.apache.xmlgraphics.image.loader.cache.ImageCache;
+import org.apache.xmlgraphics.image.loader.cache.ImageCacheListener;
+import org.apache.xmlgraphics.image.loader.cache.ImageKey;
+
+import com.jslib.api.log.Log;
+import com.jslib.api.log.LogFactory;
+
+/**
+ * Bounded cache for external resource files, e.g. images, shared by all FOP factories. Resource files are loaded by
+ * {@link CachingResourceResolver} and kept in memory keyed by file URI; file modification time is checked on every
+ * access and resource is reloaded if file was changed. When cache size limit is reached least recently used resources
+ * are evicted; resources larger than a quarter of cache size are not cached at all and are streamed from disk.
+ * <p>
+ * Decoded images are cached by FOP image manager, one per FOP factory; since factories are shared, see
+ * {@link FopFactoryRegistry}, common images are decoded once, not for every document. This class collects image cache
+ * statistics from all factories and preloads images declared by views, see {@link #PROP_PRELOAD_IMAGES}, so that they
+ * are ready at first document rendering. Image file modification time is checked on image cache hits and factory
+ * image cache is cleared if image file was changed, see {@link #getImageCacheListener(ImageCache, URI)}.
+ * <p>
+ * Resource cache size is configured from {@link #PROP_SIZE} system property, in bytes, default to
+ * {@link #DEFAULT_SIZE}.
+ *
+ * @author Iulian Rotaru
+ * @version draft
+ */
+final class ResourceCache
+{
+  /** Class logger. */
+  private static final Log log = LogFactory.getLog(ResourceCache.class);
+
+  /** System property for resource cache size, in bytes. */
+  static final String PROP_SIZE = "com.jslib.fop.resource-cache-size";
+
+  /** Optional view meta property, comma separated list of images relative to template directory. */
+  static final String PROP_PRELOAD_IMAGES = "preload-images";
+
+  /** Default resource cache size. */
+  static final long DEFAULT_SIZE = 32 * 1024 * 1024;
+
+  /** Resource cache instance shared by all FOP factories. */
+  private static final ResourceCache instance = new ResourceCache(Long.getLong(PROP_SIZE, DEFAULT_SIZE));
+
+  /**
+   * Get resource cache instance shared by all FOP factories.
+   *
+   * @return shared resource cache.
+   */
+  public static ResourceCache instance()
+  {
+    return instance;
+  }
+
+  /** Maximum size of cached resources, in bytes. */
+  private final long maxSize;
+
+  /** Cache entries in access order, least recently used first. Guarded by this cache instance. */
+  private final LinkedHashMap<URI, Entry> entries = new LinkedHashMap<>(16, 0.75F, true);
+
+  /** Current size of cached resources. Guarded by this cache instance. */
+  private long size;
+
+  /** Images already preloaded, identified by FOP factory configuration and image URI. */
+  private final Set<String> preloadedImages = ConcurrentHashMap.newKeySet();
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder imageHits = new LongAdder();
+  private final LongAdder imageMisses = new LongAdder();
+
+  ResourceCache(long maxSize)
+  {
+    log.debug("Create resource cache with size |{}|.", maxSize);
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Get resource file input stream. Resource file is served from cache if not larger than a quarter of cache size,
+   * otherwise is streamed from disk and not loaded in memory, e.g. large font files.
+   *
+   * @param file resource file.
+   * @return resource file input stream.
+   * @throws IOException if resource file opening or reading fails.
+   */
+  public InputStream getInputStream(File file) throws IOException
+  {
+    if(file.length() > maxSize / 4) {
+      misses.increment();
+      log.debug("Stream resource |{}|.", file);
+      return Files.newInputStream(file.toPath());
+    }
+    return new ByteArrayInputStream(getBytes(file));
+  }
+
+  /**
+   * Get resource file content, loading it from disk if not cached or if file was modified since cached.
+   *
+   * @param file resource file.
+   * @return resource file content.
+   * @throws IOException if resource file reading fails.
+   */
+  public byte[] getBytes(File file) throws IOException
+  {
+    URI uri = file.toURI();
+    long lastModified = file.lastModified();
+
+    Entry entry;
+    synchronized(this) {
+      entry = entries.get(uri);
+    }
+    if(entry != null && entry.lastModified == lastModified) {
+      hits.increment();
+      return entry.bytes;
+    }
+
+    // resource is loaded outside lock; concurrent misses on the same file may load it twice but the last one wins
+    misses.increment();
+    log.debug("Load resource |{}|.", file);
+    byte[] bytes = Files.readAllBytes(file.toPath());
+    if(bytes.length <= maxSize / 4) {
+      put(uri, new Entry(bytes, lastModified));
+    }
+    return bytes;
+  }
+
+  private synchronized void put(URI uri, Entry entry)
+  {
+    Entry previous = entries.put(uri, entry);
+    if(previous != null) {
+      size -= previous.bytes.length;
+    }
+    size += entry.bytes.length;
+
+    Iterator<Entry> iterator = entries.values().iterator();
+    while(size > maxSize && iterator.hasNext()) {
+      size -= iterator.next().bytes.length;
+      iterator.remove();
+    }
+  }
+
+  /**
+   * Create listener to be registered on FOP factory image cache. Listener collects image cache hits and misses and
+   * clears image cache when a cached image file is modified; image cache has no single entry removal.
+   *
+   * @param imageCache FOP factory image cache,
+   * @param baseURI FOP factory base URI, used to resolve relative image URIs.
+   * @return image cache listener.
+   */
+  public ImageCacheListener getImageCacheListener(ImageCache imageCache, URI baseURI)
+  {
+    return new ImageCacheMonitor(imageCache, baseURI);
+  }
+
+  /**
+   * Preload images into FOP factory image cache. Every image is preloaded only once per FOP factory; missing or
+   * invalid images are logged and ignored since they are reported anyway at document rendering.
+   *
+   * @param fopFactory FOP factory,
+   * @param factoryId FOP factory identity, as known by factories registry,
+   * @param baseDir base directory for relative images paths,
+   * @param images comma separated list of image paths.
+   */
+  public void preloadImages(FopFactory fopFactory, String factoryId, File baseDir, String images)
+  {
+    ImageManager imageManager = fopFactory.getImageManager();
+    ImageSessionContext sessionContext = null;
+    for(String image : images.split("\\s*,\\s*")) {
+      String uri = baseDir.toPath().resolve(image).toUri().toString();
+      if(!preloadedImages.add(factoryId + '|' + uri)) {
+        continue;
+      }
+      if(sessionContext == null) {
+        sessionContext = fopFactory.newFOUserAgent().getImageSessionContext();
+      }
+      log.debug("Preload image |{}|.", uri);
+      try {
+        imageManager.preloadImage(uri, sessionContext);
+      }
+      catch(ImageException | IOException e) {
+        log.warn("Cannot preload image |{}|: {}", uri, e);
+      }
+    }
+  }
+
+  /**
+   * Get the number of resources served from cache.
+   *
+   * @return cache hits count.
+   */
+  public long getHitCount()
+  {
+    return hits.sum();
+  }
+
+  /**
+   * Get the number of resources loaded from disk.
+   *
+   * @return cache misses count.
+   */
+  public long getMissCount()
+  {
+    return misses.sum();
+  }
+
+  /**
+   * Get the number of decoded images served from FOP image caches.
+   *
+   * @return image cache hits count.
+   */
+  public long getImageHitCount()
+  {
+    return imageHits.sum();
+  }
+
+  /**
+   * Get the number of images decoded because not found on FOP image caches.
+   *
+   * @return image cache misses count.
+   */
+  public long getImageMissCount()
+  {
+    return imageMisses.sum();
+  }
+
+  /**
+   * Listener for a FOP factory image cache. Records image file modification time when image is loaded and checks it on
+   * every image cache hit; if image file was modified, image cache is cleared so that image is loaded again on next
+   * lookup. Document being rendered when modification is detected may still use the stale image. Images not loaded
+   * from local files are not checked.
+   *
+   * @author Iulian Rotaru
+   */
+  private final class ImageCacheMonitor implements ImageCacheListener
+  {
+    private final ImageCache imageCache;
+    private final URI baseURI;
+    /** Image files modification time at loading, mapped by image URI as known by image cache. */
+    private final Map<String, Long> modificationTimes = new ConcurrentHashMap<>();
+
+    ImageCacheMonitor(ImageCache imageCache, URI baseURI)
+    {
+      this.imageCache = imageCache;
+      this.baseURI = baseURI;
+    }
+
+    @Override
+    public void invalidHit(String uri)
+    {
+    }
+
+    @Override
+    public void cacheHitImageInfo(String uri)
+    {
+      checkModified(uri);
+    }
+
+    @Override
+    public void cacheMissImageInfo(String uri)
+    {
+      File file = getFile(uri);
+      if(file != null) {
+        modificationTimes.put(uri, file.lastModified());
+      }
+    }
+
+    @Override
+    public void cacheHitImage(ImageKey key)
+    {
+      imageHits.increment();
+      checkModified(key.getURI());
+    }
+
+    @Override
+    public void cacheMissImage(ImageKey key)
+    {
+      imageMisses.increment();
+    }
+
+    private void checkModified(String uri)
+    {
+      Long lastModified = modificationTimes.get(uri);
+      if(lastModified == null) {
+        return;
+      }
+      File file = getFile(uri);
+      if(file != null && file.lastModified() != lastModified) {
+        log.debug("Image file |{}| modified. Clear image cache.", file);
+        modificationTimes.clear();
+        imageCache.clearCache();
+      }
+    }
+
+    /** Get local file for image URI, resolved against factory base URI, or null if image is not a local file. */
+    private File getFile(String uri)
+    {
+      try {
+        URI resolvedURI = baseURI.resolve(uri);
+        return "file".equals(resolvedURI.getScheme()) ? new File(resolvedURI) : null;
+      }
+      catch(IllegalArgumentException e) {
+        return null;
+      }
+    }
+  }
+
+  /**
+   * Cached resource content together with file modification time at the moment resource was loaded.
+   *
+   * @author Iulian Rotaru
+   */
+  private static final class Entry
+  {
+    final byte[] bytes;
+    final long lastModified;
+
+    Entry(byte[] bytes, long lastModified)
+    {
+      this.bytes = bytes;
+      this.lastModified = lastModified;
+    }
+  }
+}
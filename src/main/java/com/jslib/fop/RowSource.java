@@ -0,0 +1,213 @@
+package com.jslib.fop;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.stream.BaseStream;
+
+import com.jslib.lang.BugError;
+
+/**
+ * Lazy source for table rows, consumed one row at a time while FO document is rendered, see {@link TableRowStreamer}.
+ * A row source is a forward only cursor: {@link #next()} moves to next row and {@link #getValue(String)} reads named
+ * field from current row. Row source is closed after last row and again by view when rendering ends, successfully or
+ * not, see {@link TableRowStreamer#closeSources(Object)}; closing should have no effect if already closed.
+ * <p>
+ * Adapters are provided for iterators, iterables and streams, see {@link #of(Object)}, and for JDBC result sets, see
+ * {@link #of(ResultSet)}. Row objects from iterators are maps or plain objects whose fields are read by name.
+ *
+ * @author Iulian Rotaru
+ * @version draft
+ */
+public interface RowSource extends AutoCloseable
+{
+  /**
+   * Move to next row.
+   *
+   * @return true if there is a next row, false if row source is exhausted.
+   * @throws IOException if row reading fails.
+   */
+  boolean next() throws IOException;
+
+  /**
+   * Get named field value from current row.
+   *
+   * @param field field name.
+   * @return field value, possible null.
+   * @throws IOException if field reading fails.
+   */
+  Object getValue(String field) throws IOException;
+
+  @Override
+  default void close() throws IOException
+  {
+  }
+
+  /**
+   * Create row source for a value from view model. Supported values are row sources, JDBC result sets, iterators,
+   * iterables and streams.
+   *
+   * @param value value bound to table.
+   * @return row source for given value.
+   * @throws BugError if value type is not supported.
+   */
+  static RowSource of(Object value)
+  {
+    if(value instanceof RowSource) {
+      return (RowSource)value;
+    }
+    if(value instanceof ResultSet) {
+      return of((ResultSet)value);
+    }
+    if(value instanceof Iterator) {
+      return new IteratorRowSource((Iterator<?>)value, null);
+    }
+    if(value instanceof Iterable) {
+      return new IteratorRowSource(((Iterable<?>)value).iterator(), null);
+    }
+    if(value instanceof BaseStream) {
+      BaseStream<?, ?> stream = (BaseStream<?, ?>)value;
+      return new IteratorRowSource(stream.iterator(), stream);
+    }
+    throw new BugError("Unsupported row source type |%s|.", value != null ? value.getClass() : null);
+  }
+
+  /**
+   * Create row source for JDBC result set. Fields are result set column labels. Result set is closed with row source.
+   *
+   * @param resultSet JDBC result set.
+   * @return row source for result set.
+   */
+  static RowSource of(ResultSet resultSet)
+  {
+    return new RowSource()
+    {
+      @Override
+      public boolean next() throws IOException
+      {
+        try {
+          return resultSet.next();
+        }
+        catch(SQLException e) {
+          throw new IOException(e);
+        }
+      }
+
+      @Override
+      public Object getValue(String field) throws IOException
+      {
+        try {
+          return resultSet.getObject(field);
+        }
+        catch(SQLException e) {
+          throw new IOException(e);
+        }
+      }
+
+      @Override
+      public void close() throws IOException
+      {
+        try {
+          resultSet.close();
+        }
+        catch(SQLException e) {
+          throw new IOException(e);
+        }
+      }
+    };
+  }
+
+  /**
+   * Row source for iterator over row objects. Row fields are map values, object fields or getters, in this order.
+   *
+   * @author Iulian Rotaru
+   */
+  final class IteratorRowSource implements RowSource
+  {
+    private final Iterator<?> iterator;
+
+    /** Stream to close with this row source, null if rows are not from a stream. */
+    private final AutoCloseable stream;
+
+    /** Current row. */
+    private Object row;
+
+    IteratorRowSource(Iterator<?> iterator, AutoCloseable stream)
+    {
+      this.iterator = iterator;
+      this.stream = stream;
+    }
+
+    @Override
+    public boolean next()
+    {
+      if(!iterator.hasNext()) {
+        row = null;
+        return false;
+      }
+      row = iterator.next();
+      return true;
+    }
+
+    @Override
+    public Object getValue(String field) throws IOException
+    {
+      return getProperty(row, field);
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+      if(stream != null) {
+        try {
+          stream.close();
+        }
+        catch(Exception e) {
+          throw new IOException(e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Get named property from object: map value, object field or getter, in this order.
+   *
+   * @param object source object, null tolerated,
+   * @param name property name.
+   * @return property value, possible null.
+   * @throws IOException if property reading fails.
+   */
+  static Object getProperty(Object object, String name) throws IOException
+  {
+    if(object == null) {
+      return null;
+    }
+    if(object instanceof Map) {
+      return ((Map<?, ?>)object).get(name);
+    }
+    try {
+      for(Class<?> type = object.getClass(); type != null && type != Object.class; type = type.getSuperclass()) {
+        try {
+          Field field = type.getDeclaredField(name);
+          field.setAccessible(true);
+          return field.get(object);
+        }
+        catch(NoSuchFieldException e) {
+          // continue with super-class
+        }
+      }
+      Method getter = object.getClass().getMethod("get" + Character.toUpperCase(name.charAt(0)) + name.substring(1));
+      return getter.invoke(object);
+    }
+    catch(NoSuchMethodException e) {
+      throw new BugError("Missing property |%s| from |%s|.", name, object.getClass());
+    }
+    catch(ReflectiveOperationException | RuntimeException e) {
+      throw new IOException(e);
+    }
+  }
+}
@@ -0,0 +1,297 @@
+package com.jslib.fop;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.BaseStream;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+import com.jslib.api.log.Log;
+import com.jslib.api.log.LogFactory;
+import com.jslib.lang.BugError;
+
+/**
+ * Content handler that expands lazy table rows while FO document is parsed into FOP. Instead of having all rows
+ * serialized by templates engine, template declares a single row, wrapped by a <code>rows</code> element from
+ * {@link #ROWS_NS} namespace, whose <code>source</code> attribute names the view model property holding the rows,
+ * see {@link RowSource}. Elements with a <code>field</code> attribute from the same namespace get their text content
+ * replaced by current row field value.
+ *
+ * <pre>
+ * &lt;fo:table-body xmlns:rows="http://js-lib.com/fop/rows"&gt;
+ *   &lt;rows:rows source="contacts"&gt;
+ *     &lt;fo:table-row&gt;
+ *       &lt;fo:table-cell&gt;&lt;fo:block rows:field="name" /&gt;&lt;/fo:table-cell&gt;
+ *       &lt;fo:table-cell&gt;&lt;fo:block rows:field="email" /&gt;&lt;/fo:table-cell&gt;
+ *     &lt;/fo:table-row&gt;
+ *   &lt;/rows:rows&gt;
+ * &lt;/fo:table-body&gt;
+ * </pre>
+ *
+ * Row template events are recorded and, at <code>rows</code> element end, replayed into FOP for every row pulled from
+ * row source; rows are read one at a time, so that view model, FO text and row objects are never all in memory. Note
+ * that FOP still keeps the FO tree of current page sequence till sequence end.
+ * <p>
+ * Row source is closed at <code>rows</code> element end. Since rendering may fail before reaching it, view closes all
+ * row sources from model when rendering ends, see {@link #closeSources(Object)}.
+ *
+ * @author Iulian Rotaru
+ * @version draft
+ */
+final class TableRowStreamer implements ContentHandler
+{
+  /** Class logger. */
+  private static final Log log = LogFactory.getLog(TableRowStreamer.class);
+
+  /** Namespace for lazy rows element and field attribute. */
+  static final String ROWS_NS = "http://js-lib.com/fop/rows";
+
+  /** Target content handler, usually FOP default handler. */
+  private final ContentHandler target;
+
+  /** View model providing row sources. */
+  private final Object model;
+
+  /** Row template events recorded for current rows element, null if outside rows element. */
+  private List<Event> rowTemplate;
+
+  /** Row source property name for current rows element. */
+  private String source;
+
+  /** Depth of elements inside current field element, zero if not inside field element. */
+  private int fieldDepth;
+
+  TableRowStreamer(ContentHandler target, Object model)
+  {
+    this.target = target;
+    this.model = model;
+  }
+
+  @Override
+  public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException
+  {
+    if(ROWS_NS.equals(uri) && "rows".equals(localName)) {
+      if(rowTemplate != null) {
+        throw new BugError("Nested lazy rows elements are not supported.");
+      }
+      source = attributes.getValue("source");
+      if(source == null) {
+        throw new BugError("Missing source attribute from lazy rows element.");
+      }
+      rowTemplate = new ArrayList<>();
+      return;
+    }
+    if(rowTemplate == null) {
+      target.startElement(uri, localName, qName, attributes);
+      return;
+    }
+    if(fieldDepth > 0) {
+      // placeholder content from field element is discarded
+      ++fieldDepth;
+      return;
+    }
+
+    String field = attributes.getValue(ROWS_NS, "field");
+    if(field == null) {
+      AttributesImpl attributesCopy = new AttributesImpl(attributes);
+      rowTemplate.add((handler, row) -> handler.startElement(uri, localName, qName, attributesCopy));
+      return;
+    }
+    AttributesImpl attributesCopy = new AttributesImpl(attributes);
+    attributesCopy.removeAttribute(attributesCopy.getIndex(ROWS_NS, "field"));
+    rowTemplate.add((handler, row) -> {
+      handler.startElement(uri, localName, qName, attributesCopy);
+      Object value;
+      try {
+        value = row.getValue(field);
+      }
+      catch(IOException e) {
+        throw new SAXException(e);
+      }
+      if(value != null) {
+        char[] text = value.toString().toCharArray();
+        handler.characters(text, 0, text.length);
+      }
+    });
+    fieldDepth = 1;
+  }
+
+  @Override
+  public void endElement(String uri, String localName, String qName) throws SAXException
+  {
+    if(ROWS_NS.equals(uri) && "rows".equals(localName)) {
+      List<Event> events = rowTemplate;
+      rowTemplate = null;
+      emitRows(events);
+      return;
+    }
+    if(rowTemplate == null) {
+      target.endElement(uri, localName, qName);
+      return;
+    }
+    if(fieldDepth > 1) {
+      --fieldDepth;
+      return;
+    }
+    fieldDepth = 0;
+    rowTemplate.add((handler, row) -> handler.endElement(uri, localName, qName));
+  }
+
+  @Override
+  public void characters(char[] chars, int start, int length) throws SAXException
+  {
+    if(rowTemplate == null) {
+      target.characters(chars, start, length);
+      return;
+    }
+    if(fieldDepth == 0) {
+      String text = new String(chars, start, length);
+      rowTemplate.add((handler, row) -> handler.characters(text.toCharArray(), 0, text.length()));
+    }
+  }
+
+  @Override
+  public void ignorableWhitespace(char[] chars, int start, int length) throws SAXException
+  {
+    if(rowTemplate == null) {
+      target.ignorableWhitespace(chars, start, length);
+    }
+  }
+
+  @Override
+  public void setDocumentLocator(Locator locator)
+  {
+    target.setDocumentLocator(locator);
+  }
+
+  @Override
+  public void startDocument() throws SAXException
+  {
+    target.startDocument();
+  }
+
+  @Override
+  public void endDocument() throws SAXException
+  {
+    target.endDocument();
+  }
+
+  @Override
+  public void startPrefixMapping(String prefix, String uri) throws SAXException
+  {
+    target.startPrefixMapping(prefix, uri);
+  }
+
+  @Override
+  public void endPrefixMapping(String prefix) throws SAXException
+  {
+    target.endPrefixMapping(prefix);
+  }
+
+  @Override
+  public void processingInstruction(String target, String data) throws SAXException
+  {
+    this.target.processingInstruction(target, data);
+  }
+
+  @Override
+  public void skippedEntity(String name) throws SAXException
+  {
+    target.skippedEntity(name);
+  }
+
+  /**
+   * Close row sources from view model, that is, model properties with row source, JDBC result set or stream value.
+   * Closes row sources not reached by rendering, e.g. because rendering failed before rows element or because template
+   * does not use them; row sources already closed at rows element end are closed again, with no effect. Closing
+   * failures are logged and ignored so that they do not hide rendering failure.
+   *
+   * @param model view model, null tolerated.
+   */
+  static void closeSources(Object model)
+  {
+    for(Object value : getPropertyValues(model)) {
+      if(value instanceof RowSource || value instanceof ResultSet || value instanceof BaseStream) {
+        try {
+          RowSource.of(value).close();
+        }
+        catch(IOException | RuntimeException e) {
+          log.warn("Fail to close row source |{}|: {}", value.getClass(), e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Get property values from view model: map values or instance fields values.
+   *
+   * @param model view model, null tolerated.
+   * @return model property values, possible empty.
+   */
+  private static Collection<?> getPropertyValues(Object model)
+  {
+    if(model == null) {
+      return new ArrayList<>();
+    }
+    if(model instanceof Map) {
+      return ((Map<?, ?>)model).values();
+    }
+    List<Object> values = new ArrayList<>();
+    for(Class<?> type = model.getClass(); type != null && type != Object.class; type = type.getSuperclass()) {
+      for(Field field : type.getDeclaredFields()) {
+        if(Modifier.isStatic(field.getModifiers())) {
+          continue;
+        }
+        try {
+          field.setAccessible(true);
+          values.add(field.get(model));
+        }
+        catch(ReflectiveOperationException | RuntimeException e) {
+          log.debug("Cannot read model field |{}|: {}", field, e);
+        }
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Replay row template events for every row from row source bound to current rows element.
+   *
+   * @param events row template events.
+   * @throws SAXException if row reading or target handler fails.
+   */
+  private void emitRows(List<Event> events) throws SAXException
+  {
+    try (RowSource rows = RowSource.of(RowSource.getProperty(model, source))) {
+      while(rows.next()) {
+        for(Event event : events) {
+          event.replay(target, rows);
+        }
+      }
+    }
+    catch(IOException e) {
+      throw new SAXException(e);
+    }
+  }
+
+  /**
+   * Recorded row template event.
+   *
+   * @author Iulian Rotaru
+   */
+  @FunctionalInterface
+  private interface Event
+  {
+    void replay(ContentHandler handler, RowSource row) throws SAXException;
+  }
+}
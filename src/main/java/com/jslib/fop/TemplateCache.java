@@ -0,0 +1,166 @@
+package com.jslib.fop;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.jslib.api.log.Log;
+import com.jslib.api.log.LogFactory;
+import com.jslib.api.template.Template;
+import com.jslib.api.template.TemplateEngine;
+import com.jslib.util.Classes;
+
+/**
+ * Bounded cache for parsed templates, shared by all FO views. Templates are keyed by template file; when cache size
+ * limit is reached least recently used template is evicted. By default template file modification time is checked on
+ * every request and template is reloaded if file was changed. On production, where templates are not expected to
+ * change, modification check can be disabled so that cached templates are served with no disk access at all.
+ * <p>
+ * Cache is configured from system properties:
+ * <ul>
+ * <li>{@link #PROP_SIZE} - maximum number of cached templates, default to {@link #DEFAULT_SIZE},
+ * <li>{@link #PROP_CHECK_MODIFIED} - flag for template file modification time check, default to true.
+ * </ul>
+ * Templates engine implementation is expected to support concurrent serialization of the same template instance.
+ *
+ * @author Iulian Rotaru
+ * @version draft
+ */
+final class TemplateCache
+{
+  /** Class logger. */
+  private static final Log log = LogFactory.getLog(TemplateCache.class);
+
+  /** System property for templates cache size. */
+  static final String PROP_SIZE = "com.jslib.fop.template-cache-size";
+  /** System property for template file modification time check. Set it to false to never check. */
+  static final String PROP_CHECK_MODIFIED = "com.jslib.fop.template-cache-check-modified";
+
+  /** Default templates cache size. */
+  static final int DEFAULT_SIZE = 64;
+
+  /** Templates cache instance shared by all views. */
+  private static final TemplateCache instance = new TemplateCache(Integer.getInteger(PROP_SIZE, DEFAULT_SIZE), Boolean.parseBoolean(System.getProperty(PROP_CHECK_MODIFIED, "true")));
+
+  /**
+   * Get templates cache instance shared by all views.
+   *
+   * @return shared templates cache.
+   */
+  public static TemplateCache instance()
+  {
+    return instance;
+  }
+
+  /** Templates engine used to load and parse template files. */
+  private final TemplateEngine templateEngine;
+
+  /** Maximum number of cached templates. */
+  private final int maxSize;
+
+  /** Flag true if template file modification time is checked on every cache access. */
+  private final boolean checkModified;
+
+  /** Cache entries in access order, least recently used first. Guarded by this cache instance. */
+  private final LinkedHashMap<File, Entry> entries;
+
+  /** Number of templates served from cache. */
+  private final LongAdder hits = new LongAdder();
+
+  /** Number of templates loaded from disk. */
+  private final LongAdder misses = new LongAdder();
+
+  /**
+   * Create templates cache instance.
+   *
+   * @param maxSize maximum number of cached templates,
+   * @param checkModified if true check template file modification time on every cache access.
+   */
+  TemplateCache(int maxSize, boolean checkModified)
+  {
+    log.debug("Create templates cache with size |{}|. Check modified |{}|.", maxSize, checkModified);
+    this.templateEngine = Classes.loadService(TemplateEngine.class);
+    this.maxSize = maxSize;
+    this.checkModified = checkModified;
+    this.entries = new LinkedHashMap<File, Entry>(16, 0.75F, true)
+    {
+      private static final long serialVersionUID = -3036296528377744011L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<File, Entry> eldest)
+      {
+        return size() > TemplateCache.this.maxSize;
+      }
+    };
+  }
+
+  /**
+   * Get parsed template for requested template file, loading it from disk if not cached or if file was modified since
+   * cached.
+   *
+   * @param templateFile template file.
+   * @return parsed template.
+   * @throws IOException if template loading fails.
+   */
+  public Template getTemplate(File templateFile) throws IOException
+  {
+    long lastModified = checkModified ? templateFile.lastModified() : 0L;
+
+    Entry entry;
+    synchronized(this) {
+      entry = entries.get(templateFile);
+    }
+    if(entry != null && (!checkModified || entry.lastModified == lastModified)) {
+      hits.increment();
+      return entry.template;
+    }
+
+    // template is loaded outside lock; concurrent misses on the same file may load it twice but the last one wins
+    misses.increment();
+    log.debug("Load template |{}|.", templateFile);
+    Template template = templateEngine.getTemplate(templateFile);
+    synchronized(this) {
+      entries.put(templateFile, new Entry(template, lastModified));
+    }
+    return template;
+  }
+
+  /**
+   * Get the number of templates served from cache.
+   *
+   * @return cache hits count.
+   */
+  public long getHitCount()
+  {
+    return hits.sum();
+  }
+
+  /**
+   * Get the number of templates loaded from disk.
+   *
+   * @return cache misses count.
+   */
+  public long getMissCount()
+  {
+    return misses.sum();
+  }
+
+  /**
+   * Cached template together with template file modification time at the moment template was loaded.
+   *
+   * @author Iulian Rotaru
+   */
+  private static final class Entry
+  {
+    final Template template;
+    final long lastModified;
+
+    Entry(Template template, long lastModified)
+    {
+      this.template = template;
+      this.lastModified = lastModified;
+    }
+  }
+}
@@ -0,0 +1,232 @@
+package com.jslib.fop;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.jslib.api.log.Log;
+import com.jslib.api.log.LogFactory;
+import com.jslib.api.template.Template;
+
+/**
+ * Reader for template serialization performed on the fly. Template is serialized on a separate producer thread that
+ * pushes characters into a bounded queue of fixed size chunks; this reader consumes chunks on demand. Since producer
+ * blocks when queue is full, memory used by template output is bounded by {@link #QUEUE_CAPACITY} chunks of
+ * {@link #CHUNK_SIZE} characters, no matter how large resulting FO document is.
+ * <p>
+ * Producer threads are pooled and bounded by {@link #PROP_THREADS} system property, default to twice the available
+ * processors; when all producer threads are busy, template serialization waits for a free thread and this reader
+ * blocks on first read.
+ * <p>
+ * Errors thrown by template serialization are reported by this reader {@link #read(char[], int, int)} method, wrapped
+ * in {@link IOException} if necessary. Closing this reader before end of stream aborts template serialization.
+ *
+ * @author Iulian Rotaru
+ * @version draft
+ */
+final class TemplateReader extends Reader
+{
+  /** Class logger. */
+  private static final Log log = LogFactory.getLog(TemplateReader.class);
+
+  /** Number of characters from a chunk. */
+  private static final int CHUNK_SIZE = 8192;
+
+  /** Maximum number of chunks waiting to be consumed by reader. */
+  private static final int QUEUE_CAPACITY = 16;
+
+  /** Empty chunk used to mark end of template serialization. */
+  private static final char[] EOF = new char[0];
+
+  static final String PROP_THREADS = "com.jslib.fop.template-threads";
+
+  /** Maximum number of concurrent template serializations. */
+  private static final int THREADS = Integer.getInteger(PROP_THREADS, 2 * Runtime.getRuntime().availableProcessors());
+
+  /**
+   * Bounded executor for template serialization, with daemon threads created on demand and released when idle. Pending
+   * serializations wait on executor queue.
+   */
+  private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new DaemonThreadFactory("fo-template-"));
+  static {
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  /** Chunks produced by template serialization and not yet consumed by this reader. */
+  private final BlockingQueue<char[]> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+  /** Pending template serialization, cancelled if this reader is closed before end of stream. */
+  private final Future<?> producer;
+
+  /** Exception thrown by template serialization, null if serialization completes successfully. */
+  private volatile Throwable producerException;
+
+  /** Chunk currently consumed by this reader. */
+  private char[] chunk;
+
+  /** Chunk length, that is, number of valid characters from chunk buffer. */
+  private int chunkLength;
+
+  /** Index of next character to read from current chunk. */
+  private int chunkIndex;
+
+  /** Flag true after end of stream was reached. */
+  private boolean eof;
+
+  /**
+   * Start template serialization on a producer thread.
+   *
+   * @param template template instance,
+   * @param model model used to inject dynamic content into template.
+   */
+  public TemplateReader(Template template, Object model)
+  {
+    producer = executor.submit(() -> {
+      ChunkWriter writer = new ChunkWriter();
+      try {
+        template.serialize(model, writer);
+        writer.close();
+      }
+      catch(Throwable throwable) {
+        producerException = throwable;
+      }
+      // exception, if any, is published before end of stream marker
+      enqueue(EOF);
+    });
+  }
+
+  @Override
+  public int read(char[] buffer, int offset, int length) throws IOException
+  {
+    if(eof) {
+      return -1;
+    }
+    if(length == 0) {
+      return 0;
+    }
+    if(chunk == null || chunkIndex == chunkLength) {
+      try {
+        chunk = queue.take();
+      }
+      catch(InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for template serialization.");
+      }
+      if(chunk == EOF) {
+        eof = true;
+        if(producerException != null) {
+          if(producerException instanceof IOException) {
+            throw (IOException)producerException;
+          }
+          throw new IOException(producerException);
+        }
+        return -1;
+      }
+      chunkLength = chunk.length;
+      chunkIndex = 0;
+    }
+
+    int count = Math.min(length, chunkLength - chunkIndex);
+    System.arraycopy(chunk, chunkIndex, buffer, offset, count);
+    chunkIndex += count;
+    return count;
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    if(!producer.isDone()) {
+      log.debug("Template reader closed before end of stream. Abort template serialization.");
+      producer.cancel(true);
+    }
+    eof = true;
+    queue.clear();
+  }
+
+  /**
+   * Put chunk on queue, waiting for room if queue is full.
+   *
+   * @param chunk chunk to enqueue.
+   */
+  private void enqueue(char[] chunk)
+  {
+    try {
+      queue.put(chunk);
+    }
+    catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Writer used by template serialization. Collects characters into fixed size chunks and pushes completed chunks on
+   * reader queue. When queue is full this writer blocks till reader consumes pending chunks.
+   *
+   * @author Iulian Rotaru
+   */
+  private class ChunkWriter extends Writer
+  {
+    /** Buffer for chunk currently written. */
+    private char[] buffer = new char[CHUNK_SIZE];
+
+    /** Number of characters already stored into chunk buffer. */
+    private int size;
+
+    @Override
+    public void write(char[] chars, int offset, int length) throws IOException
+    {
+      while(length > 0) {
+        int count = Math.min(length, CHUNK_SIZE - size);
+        System.arraycopy(chars, offset, buffer, size, count);
+        size += count;
+        offset += count;
+        length -= count;
+        if(size == CHUNK_SIZE) {
+          emit();
+        }
+      }
+    }
+
+    @Override
+    public void flush() throws IOException
+    {
+      // chunks are emitted only when full in order to keep queue items as large as possible
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+      // end of stream is signaled by producer task, after template serialization completes
+      if(size > 0) {
+        emit();
+      }
+    }
+
+    /**
+     * Push current chunk on reader queue and allocate a new chunk buffer.
+     *
+     * @throws IOException if producer thread is interrupted, most probably because reader was closed.
+     */
+    private void emit() throws IOException
+    {
+      char[] chunk = size == CHUNK_SIZE ? buffer : Arrays.copyOf(buffer, size);
+      try {
+        queue.put(chunk);
+      }
+      catch(InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Template serialization aborted.");
+      }
+      buffer = new char[CHUNK_SIZE];
+      size = 0;
+    }
+  }
+}
@@ -0,0 +1,26 @@
+package com.jslib.fop;
+
+import org.apache.fop.apps.MimeConstants;
+
+import com.jslib.api.log.Log;
+import com.jslib.api.log.LogFactory;
+
+/**
+ * View for plain text documents rendering, for text only clients and search indexing. Text is produced by a legacy FOP
+ * renderer, not through intermediate format, so page range and intermediate format cache do not apply.
+ * 
+ * @author Iulian Rotaru
+ * @version draft
+ */
+final class TextView extends FoView
+{
+  /** Class logger. */
+  private static final Log log = LogFactory.getLog(TextView.class);
+
+  /** Create plain text view instance. */
+  public TextView()
+  {
+    super(MimeConstants.MIME_PLAIN_TEXT, "plain text");
+    log.trace("TextView()");
+  }
+}
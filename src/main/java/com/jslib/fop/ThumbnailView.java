@@ -0,0 +1,57 @@
+package com.jslib.fop;
+
+import org.apache.fop.apps.FOUserAgent;
+import org.apache.fop.apps.MimeConstants;
+
+import com.jslib.api.log.Log;
+import com.jslib.api.log.LogFactory;
+
+/**
+ * View for document thumbnails: first page rendered to PNG image at low resolution. Layout stops after first page, see
+ * {@link OutputControl}, and image resolution is view meta <code>target-resolution</code> property, default to
+ * {@link #DEFAULT_RESOLUTION} dpi.
+ * <p>
+ * Render cache is enabled by default for this view, so that listing pages with many thumbnails do not render the same
+ * document again; thumbnails are keyed by view class, template and model fingerprint, see {@link RenderCache}, and
+ * cache can be disabled or sized from view meta, as for any FO view. Cached thumbnails are served with entity tag, see
+ * {@link ConditionalGetFilter}.
+ * 
+ * @author Iulian Rotaru
+ * @version draft
+ */
+final class ThumbnailView extends FoView
+{
+  /** Class logger. */
+  private static final Log log = LogFactory.getLog(ThumbnailView.class);
+
+  /** Default thumbnail resolution, in dpi. */
+  static final int DEFAULT_RESOLUTION = 24;
+
+  /** Create thumbnail view instance. */
+  public ThumbnailView()
+  {
+    super(MimeConstants.MIME_PNG, "thumbnail");
+    log.trace("ThumbnailView()");
+  }
+
+  @Override
+  protected void configure(FOUserAgent agent, RenderProfile profile)
+  {
+    if(!profile.hasTargetResolution()) {
+      agent.setTargetResolution(DEFAULT_RESOLUTION);
+    }
+  }
+
+  @Override
+  protected RenderCache getRenderCache()
+  {
+    return RenderCache.getInstance(getClass(), meta, true);
+  }
+
+  /** Render only first page, no matter view meta page range. */
+  @Override
+  protected OutputControl getOutputControl(RenderProfile profile)
+  {
+    return profile.getOutputControl().withPageRange(1, 1);
+  }
+}
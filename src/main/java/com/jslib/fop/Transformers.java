@@ -0,0 +1,70 @@
+package com.jslib.fop;
+
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+
+/**
+ * Reusable XML transformers used to pipe serialized FO templates into FOP. Transformer factory lookup is JAXP service
+ * discovery and it is performed only once, at class loading. Since transformers are not thread safe, identity
+ * transformers are cached per thread and {@link Transformer#reset() reset} after every use; a transformer that fails is
+ * discarded.
+ *
+ * @author Iulian Rotaru
+ * @version draft
+ */
+final class Transformers
+{
+  /** Transformer factory instance. Factory is not guaranteed to be thread safe and is used under its own lock. */
+  private static final TransformerFactory factory = TransformerFactory.newInstance();
+
+  /** Identity transformers cached per thread. */
+  private static final ThreadLocal<Transformer> identityTransformer = new ThreadLocal<>();
+
+  /** Prevent default constructor synthesis. */
+  private Transformers()
+  {
+  }
+
+  /**
+   * Copy source to destination using current thread identity transformer.
+   *
+   * @param source transformation source,
+   * @param destination transformation result.
+   * @throws TransformerException if transformation fails.
+   */
+  public static void transform(Source source, Result destination) throws TransformerException
+  {
+    Transformer transformer = identityTransformer.get();
+    if(transformer == null) {
+      transformer = newTransformer();
+      identityTransformer.set(transformer);
+    }
+
+    try {
+      transformer.transform(source, destination);
+      transformer.reset();
+    }
+    catch(TransformerException | RuntimeException e) {
+      // transformer state is unknown after failure; do not reuse it
+      identityTransformer.remove();
+      throw e;
+    }
+  }
+
+  /**
+   * Create a new identity transformer.
+   *
+   * @return newly created transformer.
+   * @throws TransformerConfigurationException if transformer creation fails.
+   */
+  private static Transformer newTransformer() throws TransformerConfigurationException
+  {
+    synchronized(factory) {
+      return factory.newTransformer();
+    }
+  }
+}
@@ -0,0 +1,316 @@
+package com.jslib.fop;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.jslib.lang.BugError;
+
+/**
+ * Wire protocol between {@link RenderWorkerPool} and {@link RenderWorker}, over a plain socket. Both FO document and
+ * rendered document are sent as frames, so that neither side needs to know content length in advance and content is
+ * streamed while produced.
+ * <p>
+ * Connection starts with a challenge: worker sends a random nonce and pool answers with HMAC-SHA256 of the nonce keyed
+ * by shared secret, or with an empty answer if there is no secret; shared secret itself is never sent. Request is view
+ * class name, template file path, output format MIME type and forwarded view meta properties, followed by FO document
+ * frames, UTF-8 encoded. Response is rendered document frames followed by an end frame and page count, or by an error
+ * frame and error message. A frame is its length, as 4 bytes integer, followed by frame bytes; zero length is end
+ * frame, {@link #ERROR_FRAME} is error frame and any other length outside <code>1..FRAME_SIZE</code> is a protocol
+ * error. Nonce and answer are byte arrays prefixed by their length.
+ * <p>
+ * Only peers are authenticated; FO and rendered documents are not encrypted and workers on other hosts should be
+ * reached over a trusted network.
+ *
+ * @author Iulian Rotaru
+ * @version draft
+ */
+final class WorkerProtocol
+{
+  /** Frame buffer size. */
+  static final int FRAME_SIZE = 32 * 1024;
+
+  static final int END_FRAME = 0;
+  static final int ERROR_FRAME = -1;
+
+  /** Challenge nonce size, in bytes. */
+  static final int NONCE_SIZE = 32;
+
+  /** Challenge answer size, in bytes, that is, HMAC-SHA256 size. */
+  static final int ANSWER_SIZE = 32;
+
+  /** Maximum error message length, in characters, well below modified UTF-8 limit. */
+  private static final int MAX_MESSAGE = 8 * 1024;
+
+  private static final SecureRandom random = new SecureRandom();
+
+  private WorkerProtocol()
+  {
+  }
+
+  /** Create random challenge nonce. */
+  static byte[] newNonce()
+  {
+    byte[] nonce = new byte[NONCE_SIZE];
+    random.nextBytes(nonce);
+    return nonce;
+  }
+
+  /**
+   * Compute challenge answer: HMAC-SHA256 of nonce keyed by shared secret.
+   *
+   * @param secret shared secret bytes, null if not used,
+   * @param nonce challenge nonce.
+   * @return challenge answer, empty if there is no secret.
+   */
+  static byte[] answer(byte[] secret, byte[] nonce)
+  {
+    if(secret == null) {
+      return new byte[0];
+    }
+    try {
+      Mac mac = Mac.getInstance("HmacSHA256");
+      mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+      return mac.doFinal(nonce);
+    }
+    catch(GeneralSecurityException e) {
+      throw new BugError(e);
+    }
+  }
+
+  /**
+   * Write byte array prefixed by its length.
+   *
+   * @param out data output stream,
+   * @param bytes bytes to write.
+   * @throws IOException if writing fails.
+   */
+  static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException
+  {
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  /**
+   * Read byte array prefixed by its length.
+   *
+   * @param in data input stream,
+   * @param maxLength maximum accepted length.
+   * @return read bytes.
+   * @throws IOException if reading fails or length is not in <code>0..maxLength</code> range.
+   */
+  static byte[] readBytes(DataInputStream in, int maxLength) throws IOException
+  {
+    int length = in.readInt();
+    if(length < 0 || length > maxLength) {
+      throw new IOException(String.format("Invalid render worker protocol data length |%d|.", length));
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return bytes;
+  }
+
+  /**
+   * Output stream that writes content as frames. Closing this stream writes end frame and flushes underlying stream
+   * but does not close it, since response follows on the same connection.
+   *
+   * @author Iulian Rotaru
+   */
+  static final class FrameOutputStream extends OutputStream
+  {
+    private final DataOutputStream out;
+    private final byte[] buffer = new byte[FRAME_SIZE];
+    private int count;
+    private boolean closed;
+
+    FrameOutputStream(DataOutputStream out)
+    {
+      this.out = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException
+    {
+      ensureOpen();
+      if(count == buffer.length) {
+        writeFrame();
+      }
+      buffer[count++] = (byte)b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException
+    {
+      ensureOpen();
+      while(length > 0) {
+        if(count == buffer.length) {
+          writeFrame();
+        }
+        int chunk = Math.min(length, buffer.length - count);
+        System.arraycopy(bytes, offset, buffer, count, chunk);
+        count += chunk;
+        offset += chunk;
+        length -= chunk;
+      }
+    }
+
+    @Override
+    public void flush() throws IOException
+    {
+      writeFrame();
+      out.flush();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+      if(closed) {
+        return;
+      }
+      closed = true;
+      writeFrame();
+      out.writeInt(END_FRAME);
+      out.flush();
+    }
+
+    /**
+     * Discard buffered content and write error frame instead of end frame. Content already sent is dropped by peer.
+     *
+     * @param message error message, truncated if too long.
+     * @throws IOException if writing fails.
+     */
+    void fail(String message) throws IOException
+    {
+      if(closed) {
+        return;
+      }
+      closed = true;
+      count = 0;
+      if(message == null) {
+        message = "Render worker failure.";
+      }
+      out.writeInt(ERROR_FRAME);
+      out.writeUTF(message.length() > MAX_MESSAGE ? message.substring(0, MAX_MESSAGE) : message);
+      out.flush();
+    }
+
+    private void ensureOpen() throws IOException
+    {
+      if(closed) {
+        throw new IOException("Write on closed frame stream.");
+      }
+    }
+
+    private void writeFrame() throws IOException
+    {
+      if(count > 0) {
+        out.writeInt(count);
+        out.write(buffer, 0, count);
+        count = 0;
+      }
+    }
+  }
+
+  /**
+   * Input stream that reads content from frames, till end frame. Error frame is reported as {@link IOException} with
+   * message sent by peer.
+   *
+   * @author Iulian Rotaru
+   */
+  static final class FrameInputStream extends InputStream
+  {
+    private final DataInputStream in;
+    /** Bytes remaining from current frame. */
+    private int remaining;
+    private boolean ended;
+
+    FrameInputStream(DataInputStream in)
+    {
+      this.in = in;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+      if(!nextFrame()) {
+        return -1;
+      }
+      --remaining;
+      return in.read();
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException
+    {
+      if(length == 0) {
+        return 0;
+      }
+      if(!nextFrame()) {
+        return -1;
+      }
+      int count = in.read(bytes, offset, Math.min(length, remaining));
+      if(count < 0) {
+        throw new IOException("Unexpected end of stream from render worker connection.");
+      }
+      remaining -= count;
+      return count;
+    }
+
+    /** Test if end frame was read. */
+    boolean isEnded()
+    {
+      return ended;
+    }
+
+    /**
+     * Ensure current frame has remaining bytes, reading next frame header if necessary.
+     *
+     * @return true if there are bytes to read, false on end frame.
+     * @throws IOException if reading fails, frame length is not valid or peer sent an error frame.
+     */
+    private boolean nextFrame() throws IOException
+    {
+      if(ended) {
+        return false;
+      }
+      if(remaining == 0) {
+        int length = in.readInt();
+        if(length == ERROR_FRAME) {
+          throw new IOException(in.readUTF());
+        }
+        if(length == END_FRAME) {
+          ended = true;
+          return false;
+        }
+        if(length < 1 || length > FRAME_SIZE) {
+          throw new IOException(String.format("Invalid render worker frame length |%d|.", length));
+        }
+        remaining = length;
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Copy all frames content from input to output stream.
+   *
+   * @param in frames input stream,
+   * @param out target output stream.
+   * @throws IOException if reading, writing fails or peer sent an error frame.
+   */
+  static void copy(InputStream in, OutputStream out) throws IOException
+  {
+    byte[] buffer = new byte[FRAME_SIZE];
+    int length;
+    while((length = in.read(buffer)) != -1) {
+      out.write(buffer, 0, length);
+    }
+  }
+}
@@ -1,7 +1,8 @@
 /**
  * Tiny Container plugin for PDF and RTF views based on Apache FOP. This package provides views for PDF 
- * and RTF documents based on XSL-FO templates. Both extend container abstract view that takes care to 
- * collect and provide XSL-FO template file. 
+ * and RTF documents based on XSL-FO templates, and also for PNG, PostScript, PCL, AFP and plain text. All 
+ * extend FO view that extends container abstract view that takes care to collect and provide XSL-FO 
+ * template file. 
  * 
  * @author Iulian Rotaru
  * @version draft
@@ -0,0 +1,37 @@
+package com.jslib.fop;
+
+import java.util.regex.Pattern;
+
+/**
+ * Rendered documents fixture. Documents rendered from the same template and model differ only by values FOP generates
+ * per render: PDF creation and modification dates, both in document information and XMP metadata, and PDF file ID.
+ * Normalized documents can be compared for equality.
+ *
+ * @author Iulian Rotaru
+ */
+final class Documents
+{
+  private static final Pattern PDF_DATE = Pattern.compile("/(CreationDate|ModDate) \\(D:[^)]*\\)");
+  private static final Pattern PDF_ID = Pattern.compile("/ID \\[<[0-9A-Fa-f]+> ?<[0-9A-Fa-f]+>\\]");
+  private static final Pattern XMP_DATE = Pattern.compile("<xmp:(\\w*Date)>[^<]*</xmp:\\1>");
+  private static final Pattern RTF_DATE = Pattern.compile("\\{\\\\(creatim|revtim)[^}]*\\}");
+
+  /**
+   * Replace per render values from document with fixed ones. Replaced values have the same length on every render,
+   * so PDF cross-reference tables of documents rendered from the same template and model are equal as well.
+   *
+   * @param document rendered document, ISO-8859-1 decoded.
+   * @return normalized document.
+   */
+  public static String normalize(String document)
+  {
+    document = PDF_DATE.matcher(document).replaceAll("/$1 ()");
+    document = PDF_ID.matcher(document).replaceAll("/ID []");
+    document = XMP_DATE.matcher(document).replaceAll("<xmp:$1/>");
+    return RTF_DATE.matcher(document).replaceAll("{\\\\$1}");
+  }
+
+  private Documents()
+  {
+  }
+}
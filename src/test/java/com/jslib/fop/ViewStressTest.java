@@ -0,0 +1,175 @@
+package com.jslib.fop;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+
+import org.junit.Test;
+
+import com.jslib.container.mvc.AbstractView;
+import com.jslib.container.mvc.View;
+import com.jslib.container.mvc.ViewMeta;
+import com.jslib.util.Classes;
+
+import jakarta.servlet.ServletOutputStream;
+
+/**
+ * Concurrent serialization of shared view instances. Every thread count from {@link #PROP_THREADS} system property
+ * hammers the same view instance; every rendered document is checked for validity and compared with a reference
+ * document rendered by the same view on a single thread, after per render values are normalized, see
+ * {@link Documents#normalize(String)}. Rendering failures are counted. Throughput for every thread count is printed on
+ * standard output as scalability curve.
+ *
+ * @author Iulian Rotaru
+ */
+public class ViewStressTest
+{
+  /** System property for comma separated thread counts, default to {@link #DEFAULT_THREADS}. */
+  private static final String PROP_THREADS = "com.jslib.fop.stress-threads";
+  private static final String DEFAULT_THREADS = "1,4,16,64";
+
+  /** Number of documents rendered by every thread. */
+  private static final int RENDERS_PER_THREAD = 4;
+
+  @Test
+  public void testPdfViewConcurrency() throws Exception
+  {
+    stress("PDF", newView(new PdfView(), PdfView.class, new Properties()), document -> document.startsWith("%PDF-") && document.trim().endsWith("%%EOF"));
+  }
+
+  @Test
+  public void testRtfViewConcurrency() throws Exception
+  {
+    stress("RTF", newView(new RtfView(), RtfView.class, new Properties()), document -> document.startsWith("{\\rtf1") && document.trim().endsWith("}"));
+  }
+
+  @Test
+  public void testPdfViewStreamingConcurrency() throws Exception
+  {
+    Properties properties = new Properties();
+    properties.setProperty("streaming", "true");
+    stress("PDF streaming", newView(new PdfView(), PdfView.class, properties), document -> document.startsWith("%PDF-") && document.trim().endsWith("%%EOF"));
+  }
+
+  @Test
+  public void testPdfViewRenderCacheConcurrency() throws Exception
+  {
+    Properties properties = new Properties();
+    properties.setProperty("cache", "true");
+    properties.setProperty("if-cache", "true");
+    stress("PDF caches", newView(new PdfView(), PdfView.class, properties), document -> document.startsWith("%PDF-") && document.trim().endsWith("%%EOF"));
+  }
+
+  private static void stress(String name, View view, Predicate<String> validator) throws Exception
+  {
+    long failureCount = RenderMetrics.getStatistics().getFailureCount();
+
+    StressHttpServletResponse referenceResponse = new StressHttpServletResponse();
+    view.serialize(referenceResponse);
+    String reference = referenceResponse.getDocument();
+    assertTrue(String.format("Invalid %s reference document.", name), validator.test(reference));
+    reference = Documents.normalize(reference);
+
+    for(String threadsValue : System.getProperty(PROP_THREADS, DEFAULT_THREADS).split(",")) {
+      int threads = Integer.parseInt(threadsValue.trim());
+      ExecutorService executor = Executors.newFixedThreadPool(threads);
+      CountDownLatch startSignal = new CountDownLatch(1);
+      List<Future<List<String>>> futures = new ArrayList<>();
+
+      for(int i = 0; i < threads; ++i) {
+        futures.add(executor.submit(new Callable<List<String>>()
+        {
+          @Override
+          public List<String> call() throws Exception
+          {
+            startSignal.await();
+            List<String> documents = new ArrayList<>();
+            for(int j = 0; j < RENDERS_PER_THREAD; ++j) {
+              StressHttpServletResponse httpResponse = new StressHttpServletResponse();
+              view.serialize(httpResponse);
+              documents.add(httpResponse.getDocument());
+            }
+            return documents;
+          }
+        }));
+      }
+
+      long start = System.nanoTime();
+      startSignal.countDown();
+      int documentsCount = 0;
+      for(Future<List<String>> future : futures) {
+        for(String document : future.get()) {
+          assertTrue(String.format("Invalid %s document rendered on %d threads.", name, threads), validator.test(document));
+          assertEquals(String.format("%s document rendered on %d threads differs from reference.", name, threads), reference, Documents.normalize(document));
+          ++documentsCount;
+        }
+      }
+      double seconds = (System.nanoTime() - start) / 1e9;
+      executor.shutdown();
+
+      assertEquals(threads * RENDERS_PER_THREAD, documentsCount);
+      System.out.printf("%s: %d threads, %d documents, %.1f documents/sec%n", name, threads, documentsCount, documentsCount / seconds);
+    }
+
+    assertEquals(failureCount, RenderMetrics.getStatistics().getFailureCount());
+  }
+
+  private static View newView(View view, Class<? extends View> type, Properties properties) throws Exception
+  {
+    Classes.invoke(view, AbstractView.class, "setMeta", new ViewMeta(new File("fixture/page.fo"), type, properties));
+    view.setModel(new Person(true));
+    return view;
+  }
+
+  // ------------------------------------------------------
+  // FIXTURE
+
+  private static class StressHttpServletResponse extends HttpServletResponseStub
+  {
+    private final ByteArrayOutputStream document = new ByteArrayOutputStream();
+
+    @Override
+    public void setContentType(String contentType)
+    {
+    }
+
+    @Override
+    public void setHeader(String header, String value)
+    {
+    }
+
+    @Override
+    public void setDateHeader(String header, long value)
+    {
+    }
+
+    @Override
+    public void addHeader(String header, String value)
+    {
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException
+    {
+      return new MockServletOutputStream(document);
+    }
+
+    public String getDocument()
+    {
+      return new String(document.toByteArray(), StandardCharsets.ISO_8859_1);
+    }
+  }
+}
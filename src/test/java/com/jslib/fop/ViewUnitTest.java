@@ -1,25 +1,75 @@
 package com.jslib.fop;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
+import javax.imageio.ImageIO;
+import javax.management.ObjectName;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.apache.fop.apps.FOUserAgent;
+import org.apache.fop.apps.FopFactory;
+import org.apache.fop.apps.MimeConstants;
+import org.apache.xmlgraphics.image.loader.cache.ImageCache;
+import org.apache.xmlgraphics.image.loader.cache.ImageCacheListener;
 import org.junit.Before;
 import org.junit.Test;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
 
+import com.jslib.api.template.Template;
 import com.jslib.container.mvc.AbstractView;
 import com.jslib.container.mvc.View;
 import com.jslib.container.mvc.ViewMeta;
+import com.jslib.lang.BugError;
 import com.jslib.util.Classes;
 
 import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 
 public class ViewUnitTest
@@ -66,6 +116,1164 @@ public class ViewUnitTest
     assertHeaders(httpResponse);
   }
 
+  @Test
+  public void testPostScriptView() throws Exception
+  {
+    httpResponse.setTargetFile(new File("fixture/page.ps"));
+
+    View view = new PostScriptView();
+    setViewMeta(view, PostScriptView.class);
+    view.setModel(getPerson());
+    view.serialize(httpResponse);
+
+    assertEquals("application/postscript", httpResponse.getHeader("Content-Type"));
+    assertHeaders(httpResponse);
+  }
+
+  @Test
+  public void testPngView() throws Exception
+  {
+    File targetFile = new File("fixture/page.png");
+    httpResponse.setTargetFile(targetFile);
+
+    View view = new PngView();
+    setViewMeta(view, PngView.class);
+    view.setModel(getPerson());
+    view.serialize(httpResponse);
+
+    assertEquals("image/png", httpResponse.getHeader("Content-Type"));
+    assertHeaders(httpResponse);
+    byte[] image = Files.readAllBytes(targetFile.toPath());
+    assertEquals("PNG", new String(image, 1, 3, "ISO-8859-1"));
+  }
+
+  @Test
+  public void testPclView() throws Exception
+  {
+    File targetFile = new File("fixture/page.pcl");
+    httpResponse.setTargetFile(targetFile);
+
+    View view = new PclView();
+    setViewMeta(view, PclView.class);
+    view.setModel(getPerson());
+    view.serialize(httpResponse);
+
+    assertEquals("application/x-pcl", httpResponse.getHeader("Content-Type"));
+    assertHeaders(httpResponse);
+    // PCL job starts with printer reset command, escape E
+    byte[] document = Files.readAllBytes(targetFile.toPath());
+    assertEquals(0x1B, document[0]);
+    assertEquals('E', document[1]);
+  }
+
+  @Test
+  public void testAfpView() throws Exception
+  {
+    File targetFile = new File("fixture/page.afp");
+    httpResponse.setTargetFile(targetFile);
+
+    View view = new AfpView();
+    setViewMeta(view, AfpView.class);
+    view.setModel(getPerson());
+    view.serialize(httpResponse);
+
+    assertEquals("application/x-afp", httpResponse.getHeader("Content-Type"));
+    assertHeaders(httpResponse);
+    // AFP document is a sequence of structured fields, every one starting with 0x5A introducer
+    byte[] document = Files.readAllBytes(targetFile.toPath());
+    assertEquals(0x5A, document[0]);
+  }
+
+  @Test
+  public void testTextView() throws Exception
+  {
+    File targetFile = new File("fixture/page.txt");
+    httpResponse.setTargetFile(targetFile);
+
+    View view = new TextView();
+    setViewMeta(view, TextView.class);
+    view.setModel(getPerson());
+    view.serialize(httpResponse);
+
+    assertEquals("text/plain", httpResponse.getHeader("Content-Type"));
+    assertHeaders(httpResponse);
+    String document = new String(Files.readAllBytes(targetFile.toPath()), "UTF-8");
+    assertTrue(document.contains("John"));
+  }
+
+  @Test
+  public void testThumbnailView() throws Exception
+  {
+    // fixture pages have distinct sizes: 200x200, 400x300 and 300x300 points
+    File templateFile = new File("fixture/pages.fo");
+    File targetFile = new File("fixture/page.png");
+    httpResponse.setTargetFile(targetFile);
+    long renderCount = RenderMetrics.getStatistics().getRenderCount();
+
+    View view = new ThumbnailView();
+    setViewMeta(view, ThumbnailView.class, templateFile, new Properties());
+    view.setModel(getPerson());
+    view.serialize(httpResponse);
+
+    assertEquals("image/png", httpResponse.getHeader("Content-Type"));
+    assertEquals("private, no-cache", httpResponse.getHeader("Cache-Control"));
+    String etag = httpResponse.getHeader("ETag");
+    assertNotNull(etag);
+    assertEquals(renderCount + 1, RenderMetrics.getStatistics().getRenderCount());
+
+    byte[] image = Files.readAllBytes(targetFile.toPath());
+    assertEquals("PNG", new String(image, 1, 3, "ISO-8859-1"));
+    // first page of 200 points at default 24 dpi is about 67 pixels; other pages or 72 dpi would be larger
+    BufferedImage thumbnail = ImageIO.read(targetFile);
+    assertEquals(thumbnail.getWidth(), thumbnail.getHeight());
+    assertTrue(thumbnail.getWidth() >= 66 && thumbnail.getWidth() <= 67);
+
+    // render cache is enabled by default: second request is served from cache with the same entity tag
+    httpResponse = new MockHttpServletResponse();
+    httpResponse.setTargetFile(targetFile);
+    view = new ThumbnailView();
+    setViewMeta(view, ThumbnailView.class, templateFile, new Properties());
+    view.setModel(getPerson());
+    view.serialize(httpResponse);
+
+    assertEquals(etag, httpResponse.getHeader("ETag"));
+    assertEquals(renderCount + 1, RenderMetrics.getStatistics().getRenderCount());
+    assertTrue(Arrays.equals(image, Files.readAllBytes(targetFile.toPath())));
+  }
+
+  @Test
+  public void testPdfViewStreaming() throws Exception
+  {
+    httpResponse.setTargetFile(new File("fixture/page.pdf"));
+
+    Properties properties = new Properties();
+    properties.setProperty("streaming", "true");
+
+    View view = new PdfView();
+    setViewMeta(view, PdfView.class, properties);
+    view.setModel(getPerson());
+    view.serialize(httpResponse);
+
+    assertEquals("application/pdf", httpResponse.getHeader("Content-Type"));
+    assertHeaders(httpResponse);
+    byte[] document = Files.readAllBytes(new File("fixture/page.pdf").toPath());
+    String pdf = new String(document, "ISO-8859-1");
+    assertTrue(pdf.startsWith("%PDF-"));
+    assertTrue(pdf.trim().endsWith("%%EOF"));
+    assertEquals(1, getPageCount(document));
+
+    // streamed template content reaches rendered document
+    File textFile = new File("fixture/page.txt");
+    httpResponse = new MockHttpServletResponse();
+    httpResponse.setTargetFile(textFile);
+    view = new TextView();
+    setViewMeta(view, TextView.class, properties);
+    view.setModel(getPerson());
+    view.serialize(httpResponse);
+    assertTrue(new String(Files.readAllBytes(textFile.toPath()), "UTF-8").contains("John"));
+  }
+
+  @Test
+  public void testPdfViewConcatenate() throws Exception
+  {
+    httpResponse.setTargetFile(new File("fixture/page.pdf"));
+
+    Properties properties = new Properties();
+    properties.setProperty("concatenate", "true");
+
+    View view = new PdfView();
+    setViewMeta(view, PdfView.class, properties);
+    view.setModel(Arrays.asList(getPerson(), getPerson(), getPerson()));
+    view.serialize(httpResponse);
+
+    assertEquals("application/pdf", httpResponse.getHeader("Content-Type"));
+    assertHeaders(httpResponse);
+    // fixture template has a single page
+    assertEquals(3, getPageCount(Files.readAllBytes(new File("fixture/page.pdf").toPath())));
+
+    // only root element and layout master set from first document are forwarded, then all page sequences
+    Map<String, Integer> elements = new HashMap<>();
+    AtomicInteger rootEndCount = new AtomicInteger();
+    DefaultHandler handler = new DefaultHandler()
+    {
+      @Override
+      public void startElement(String uri, String localName, String qName, Attributes attributes)
+      {
+        elements.merge(localName, 1, Integer::sum);
+      }
+
+      @Override
+      public void endElement(String uri, String localName, String qName)
+      {
+        if("root".equals(localName)) {
+          rootEndCount.incrementAndGet();
+        }
+      }
+    };
+    FoConcatenator.ConcatenationHandler concatenationHandler = new FoConcatenator.ConcatenationHandler(handler);
+    SAXParserFactory parserFactory = SAXParserFactory.newInstance();
+    parserFactory.setNamespaceAware(true);
+    XMLReader xmlReader = parserFactory.newSAXParser().getXMLReader();
+    xmlReader.setContentHandler(concatenationHandler);
+    for(int i = 0; i < 3; ++i) {
+      xmlReader.parse(new InputSource(new File("fixture/page.fo").toURI().toString()));
+      concatenationHandler.nextDocument();
+    }
+    concatenationHandler.endConcatenation();
+
+    assertEquals(Integer.valueOf(1), elements.get("root"));
+    assertEquals(Integer.valueOf(1), elements.get("layout-master-set"));
+    assertEquals(Integer.valueOf(1), elements.get("simple-page-master"));
+    assertEquals(Integer.valueOf(3), elements.get("page-sequence"));
+    assertEquals(1, rootEndCount.get());
+
+    // bookmark tree from subsequent documents would follow page sequences and break fo:root content model
+    elements.clear();
+    concatenationHandler = new FoConcatenator.ConcatenationHandler(handler);
+    xmlReader.setContentHandler(concatenationHandler);
+    for(int i = 0; i < 3; ++i) {
+      xmlReader.parse(new InputSource(new File("fixture/bookmarks.fo").toURI().toString()));
+      concatenationHandler.nextDocument();
+    }
+    concatenationHandler.endConcatenation();
+    assertEquals(Integer.valueOf(1), elements.get("bookmark-tree"));
+    assertEquals(Integer.valueOf(1), elements.get("bookmark"));
+    assertEquals(Integer.valueOf(3), elements.get("page-sequence"));
+
+    httpResponse = new MockHttpServletResponse();
+    httpResponse.setTargetFile(new File("fixture/page.pdf"));
+    view = new PdfView();
+    setViewMeta(view, PdfView.class, new File("fixture/bookmarks.fo"), properties);
+    view.setModel(Arrays.asList(getPerson(), getPerson(), getPerson()));
+    view.serialize(httpResponse);
+    assertEquals(3, getPageCount(Files.readAllBytes(new File("fixture/page.pdf").toPath())));
+  }
+
+  @Test
+  public void testFopFactoryRegistry() throws Exception
+  {
+    URI baseURI = new File("fixture").toURI();
+    FopFactory fopFactory = FopFactoryRegistry.getFopFactory(FopFactoryRegistry.DEFAULT_CONFIG, baseURI);
+    long hitCount = FopFactoryRegistry.getHitCount();
+
+    assertSame(fopFactory, FopFactoryRegistry.getFopFactory(FopFactoryRegistry.DEFAULT_CONFIG, baseURI));
+    assertEquals(hitCount + 1, FopFactoryRegistry.getHitCount());
+
+    FopFactory otherFactory = FopFactoryRegistry.getFopFactory(FopFactoryRegistry.DEFAULT_CONFIG, new File("src").toURI());
+    assertTrue(FopFactoryRegistry.getFactoryId(fopFactory) != FopFactoryRegistry.getFactoryId(otherFactory));
+
+    // concurrent requests for a new key get the same factory, created once
+    URI concurrentURI = Files.createTempDirectory("templates").toUri();
+    long missCount = FopFactoryRegistry.getMissCount();
+    FopFactory[] concurrentFactories = new FopFactory[4];
+    Thread[] threads = new Thread[concurrentFactories.length];
+    for(int i = 0; i < threads.length; ++i) {
+      int index = i;
+      threads[i] = new Thread(() -> {
+        try {
+          concurrentFactories[index] = FopFactoryRegistry.getFopFactory(FopFactoryRegistry.DEFAULT_CONFIG, concurrentURI);
+        }
+        catch(IOException e) {
+          throw new IllegalStateException(e);
+        }
+      });
+      threads[i].start();
+    }
+    for(Thread thread : threads) {
+      thread.join();
+    }
+    for(FopFactory concurrentFactory : concurrentFactories) {
+      assertNotNull(concurrentFactory);
+      assertSame(concurrentFactories[0], concurrentFactory);
+    }
+    assertEquals(missCount + 1, FopFactoryRegistry.getMissCount());
+  }
+
+  @Test
+  public void testFopFactoryWarmUp() throws Exception
+  {
+    File templatesDir = Files.createTempDirectory("templates").toFile();
+    templatesDir.deleteOnExit();
+    long missCount = FopFactoryRegistry.getMissCount();
+    FopFactoryRegistry.warmUp(templatesDir);
+    assertEquals(missCount + 1, FopFactoryRegistry.getMissCount());
+
+    // first request after warm-up is served from registry
+    long hitCount = FopFactoryRegistry.getHitCount();
+    FopFactory fopFactory = FopFactoryRegistry.getFopFactory(FopFactoryRegistry.DEFAULT_CONFIG, templatesDir.toURI());
+    assertNotNull(fopFactory);
+    assertEquals(hitCount + 1, FopFactoryRegistry.getHitCount());
+    assertEquals(missCount + 1, FopFactoryRegistry.getMissCount());
+  }
+
+  @Test
+  public void testTemplateCache() throws Exception
+  {
+    File templateFile = File.createTempFile("page", ".fo");
+    templateFile.deleteOnExit();
+    Files.copy(new File("fixture/page.fo").toPath(), templateFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+    TemplateCache cache = new TemplateCache(1, true);
+    Template template = cache.getTemplate(templateFile);
+    assertSame(template, cache.getTemplate(templateFile));
+
+    templateFile.setLastModified(templateFile.lastModified() + 2000);
+    assertNotSame(template, cache.getTemplate(templateFile));
+    assertEquals(1, cache.getHitCount());
+    assertEquals(2, cache.getMissCount());
+  }
+
+  @Test
+  public void testRenderCache() throws Exception
+  {
+    RenderCache cache = new RenderCache(1024, null, 0);
+    String key = "key";
+    assertFalse(cache.copy(key, new ByteArrayOutputStream()));
+
+    ByteArrayOutputStream document = new ByteArrayOutputStream();
+    long timestamp = cache.getLastModified(key);
+    RenderCache.Capture capture = cache.capture(key, timestamp, document);
+    capture.write("%PDF-1.4".getBytes());
+    capture.commit();
+
+    ByteArrayOutputStream cachedDocument = new ByteArrayOutputStream();
+    assertTrue(cache.copy(key, cachedDocument));
+    assertEquals(document.toString(), cachedDocument.toString());
+    assertEquals(timestamp, cache.getLastModified(key));
+
+    // views on the same template have distinct caches and keys if view class or render settings differ
+    File templateFile = new File("fixture/page.fo");
+    Properties properties = new Properties();
+    properties.setProperty("cache", "true");
+    ViewMeta pngMeta = new ViewMeta(templateFile, PngView.class, properties);
+    ViewMeta thumbnailMeta = new ViewMeta(templateFile, ThumbnailView.class, properties);
+    assertNotSame(RenderCache.getInstance(PngView.class, pngMeta), RenderCache.getInstance(ThumbnailView.class, thumbnailMeta));
+    String pngKey = RenderCache.getKey(PngView.class, RenderProfile.getInstance(pngMeta), templateFile, "image/png", getPerson());
+    String thumbnailKey = RenderCache.getKey(ThumbnailView.class, RenderProfile.getInstance(thumbnailMeta), templateFile, "image/png", getPerson());
+    assertFalse(pngKey.equals(thumbnailKey));
+
+    Properties rangeProperties = new Properties();
+    rangeProperties.setProperty("cache", "true");
+    rangeProperties.setProperty("page-range", "2");
+    ViewMeta rangeMeta = new ViewMeta(templateFile, PngView.class, rangeProperties);
+    assertNotSame(RenderCache.getInstance(PngView.class, pngMeta), RenderCache.getInstance(PngView.class, rangeMeta));
+    assertFalse(pngKey.equals(RenderCache.getKey(PngView.class, RenderProfile.getInstance(rangeMeta), templateFile, "image/png", getPerson())));
+  }
+
+  @Test
+  public void testRenderCacheSpill() throws Exception
+  {
+    File spillDir = Files.createTempDirectory("render-cache").toFile();
+    spillDir.deleteOnExit();
+    String firstKey = RenderCache.getKey(new File("fixture/page.fo"), "application/pdf", getPerson());
+    String secondKey = RenderCache.getKey(new File("fixture/pages.fo"), "application/pdf", getPerson());
+
+    // spill file left by a previous run is removed; other files from spill directory are not touched
+    File staleFile = new File(spillDir, firstKey + ".1");
+    File otherFile = new File(spillDir, "other.txt");
+    Files.write(staleFile.toPath(), new byte[16]);
+    Files.write(otherFile.toPath(), new byte[16]);
+
+    RenderCache cache = new RenderCache(16, spillDir, 1024);
+    assertFalse(staleFile.exists());
+    assertTrue(otherFile.exists());
+    otherFile.delete();
+
+    // second document evicts first one from memory to spill directory
+    RenderCache.Capture capture = cache.capture(firstKey, cache.getLastModified(firstKey), new ByteArrayOutputStream());
+    capture.write("first document".getBytes());
+    capture.commit();
+    capture = cache.capture(secondKey, cache.getLastModified(secondKey), new ByteArrayOutputStream());
+    capture.write("second document".getBytes());
+    capture.commit();
+
+    assertEquals(1, spillDir.listFiles().length);
+    ByteArrayOutputStream cachedDocument = new ByteArrayOutputStream();
+    assertTrue(cache.copy(firstKey, cachedDocument));
+    assertEquals("first document", cachedDocument.toString());
+
+    for(File file : spillDir.listFiles()) {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testConditionalGet() throws Exception
+  {
+    httpResponse.setTargetFile(new File("fixture/page.pdf"));
+
+    Properties properties = new Properties();
+    properties.setProperty("cache", "true");
+    View view = new PdfView();
+    setViewMeta(view, PdfView.class, properties);
+    view.setModel(getPerson());
+    view.serialize(httpResponse);
+
+    String etag = httpResponse.getHeader("ETag");
+    assertNotNull(etag);
+    assertEquals("private, no-cache", httpResponse.getHeader("Cache-Control"));
+    assertNull(httpResponse.getHeader("Pragma"));
+    assertNull(httpResponse.getHeader("Expires"));
+
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    MockHttpServletResponse conditionalResponse = conditionalGet(view, etag, body);
+    assertEquals(HttpServletResponse.SC_NOT_MODIFIED, conditionalResponse.getStatus());
+    assertEquals(0, body.size());
+    assertEquals(etag, conditionalResponse.getHeader("ETag"));
+    // document cached on first request keeps last modified time sent on first response
+    assertEquals(httpResponse.getHeader("Last-Modified"), conditionalResponse.getHeader("Last-Modified"));
+
+    // entity tags list is parsed and every tag compared exactly, weak prefix ignored
+    assertEquals(HttpServletResponse.SC_NOT_MODIFIED, conditionalGet(view, "\"other\", W/" + etag, new ByteArrayOutputStream()).getStatus());
+    body = new ByteArrayOutputStream();
+    String partialTag = etag.substring(0, etag.length() - 1) + "0\"";
+    assertEquals(HttpServletResponse.SC_OK, conditionalGet(view, partialTag + ", \"x" + etag + "\"", body).getStatus());
+    assertTrue(body.size() > 0);
+  }
+
+  @Test
+  public void testBatchRenderer() throws Exception
+  {
+    List<Person> persons = Arrays.asList(getPerson(), getPerson(), getPerson());
+    AtomicInteger documentsCount = new AtomicInteger();
+
+    BatchRenderer renderer = new BatchRenderer(new File("fixture/page.fo"), "application/pdf");
+    BatchStatistics statistics = renderer.render(persons.iterator(), (index, model, document) -> {
+      assertTrue(new String(document, 0, 5).equals("%PDF-"));
+      documentsCount.incrementAndGet();
+    });
+
+    assertEquals(3, documentsCount.get());
+    assertEquals(3, statistics.getDocumentsCount());
+    assertEquals(0, statistics.getFailuresCount());
+  }
+
+  @Test
+  public void testRenderMetrics() throws Exception
+  {
+    httpResponse.setTargetFile(new File("fixture/page.pdf"));
+    RenderStatistics statistics = RenderMetrics.getStatistics();
+    long renderCount = statistics.getRenderCount();
+    long bytesWritten = statistics.getBytesWritten();
+
+    View view = new PdfView();
+    setViewMeta(view, PdfView.class);
+    view.setModel(getPerson());
+    view.serialize(httpResponse);
+
+    assertEquals(renderCount + 1, statistics.getRenderCount());
+    assertTrue(statistics.getBytesWritten() > bytesWritten);
+    assertTrue(statistics.getMaxRenderTimeMillis() > 0);
+
+    // template loading failure is a render failure
+    long failureCount = statistics.getFailureCount();
+    View missingTemplateView = new PdfView();
+    Classes.invoke(missingTemplateView, AbstractView.class, "setMeta", new ViewMeta(new File("fixture/missing.fo"), PdfView.class, new Properties()));
+    missingTemplateView.setModel(getPerson());
+    httpResponse = new MockHttpServletResponse();
+    httpResponse.setTargetFile(new File("fixture/page.pdf"));
+    try {
+      missingTemplateView.serialize(httpResponse);
+      fail("Missing template should fail rendering.");
+    }
+    catch(IOException expected) {
+    }
+    assertEquals(failureCount + 1, statistics.getFailureCount());
+
+    ObjectName objectName = new ObjectName(RenderMetrics.OBJECT_NAME);
+    RenderMetrics.unregister();
+    assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(objectName));
+    RenderMetrics.register();
+    assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(objectName));
+  }
+
+  @Test
+  public void testFontBundle() throws Exception
+  {
+    File bundleFile = File.createTempFile("fop-fonts", ".xconf");
+    try {
+      FontBundle.export(bundleFile);
+      String bundle = new String(Files.readAllBytes(bundleFile.toPath()), "UTF-8");
+      assertTrue(bundle.contains("<renderer mime=\"application/pdf\">"));
+      assertFalse(bundle.contains("<auto-detect"));
+    }
+    finally {
+      bundleFile.delete();
+    }
+  }
+
+  @Test
+  public void testFontConfig() throws Exception
+  {
+    File templateDir = new File("fixture");
+    Properties properties = new Properties();
+    assertNull(FontConfig.getInstance(new ViewMeta(new File("fixture/page.fo"), PdfView.class, properties), templateDir));
+
+    properties.setProperty("font-base-url", "fonts");
+    properties.setProperty("fonts", "regular.ttf, bold.ttf");
+    FontConfig fontConfig = FontConfig.getInstance(new ViewMeta(new File("fixture/page.fo"), PdfView.class, properties), templateDir);
+    assertTrue(fontConfig.getId().contains("regular.ttf,bold.ttf;"));
+    assertTrue(fontConfig.getId().endsWith(";subset"));
+  }
+
+  @Test
+  public void testPdfProfile() throws Exception
+  {
+    Properties properties = new Properties();
+    properties.setProperty("pdf-profile", "uncompressed");
+    PdfProfile profile = PdfProfile.getInstance(new ViewMeta(new File("fixture/page.fo"), PdfView.class, properties));
+    assertSame(PdfProfile.UNCOMPRESSED, profile);
+    assertTrue(profile.isConfigurationChanged());
+
+    String config = new String(profile.configure(Classes.getResourceAsStream(FopFactoryRegistry.DEFAULT_CONFIG)).readAllBytes(), "UTF-8");
+    assertTrue(config.contains("<filterList type=\"content\"><value>null</value></filterList>"));
+    assertTrue(config.contains("<auto-detect"));
+  }
+
+  @Test
+  public void testResourceCache() throws Exception
+  {
+    File resourceFile = File.createTempFile("logo", ".png");
+    try {
+      Files.write(resourceFile.toPath(), new byte[] { 1, 2, 3 });
+      ResourceCache resourceCache = new ResourceCache(1024);
+
+      assertEquals(3, resourceCache.getBytes(resourceFile).length);
+      assertEquals(3, resourceCache.getBytes(resourceFile).length);
+      assertEquals(1, resourceCache.getHitCount());
+      assertEquals(1, resourceCache.getMissCount());
+
+      Files.write(resourceFile.toPath(), new byte[] { 1, 2, 3, 4 });
+      resourceFile.setLastModified(resourceFile.lastModified() + 2000);
+      assertEquals(4, resourceCache.getBytes(resourceFile).length);
+      assertEquals(2, resourceCache.getMissCount());
+
+      // resources larger than a quarter of cache size are streamed and not cached
+      ResourceCache smallCache = new ResourceCache(8);
+      try (InputStream stream = smallCache.getInputStream(resourceFile)) {
+        assertEquals(4, stream.available());
+      }
+      smallCache.getInputStream(resourceFile).close();
+      assertEquals(0, smallCache.getHitCount());
+      assertEquals(2, smallCache.getMissCount());
+
+      // image cache is cleared when a cached image file is modified
+      AtomicInteger clearCount = new AtomicInteger();
+      ImageCache imageCache = new ImageCache()
+      {
+        @Override
+        public void clearCache()
+        {
+          clearCount.incrementAndGet();
+          super.clearCache();
+        }
+      };
+      ImageCacheListener listener = resourceCache.getImageCacheListener(imageCache, resourceFile.getParentFile().toURI());
+      listener.cacheMissImageInfo(resourceFile.getName());
+      listener.cacheHitImageInfo(resourceFile.getName());
+      assertEquals(0, clearCount.get());
+
+      resourceFile.setLastModified(resourceFile.lastModified() + 2000);
+      listener.cacheHitImageInfo(resourceFile.getName());
+      assertEquals(1, clearCount.get());
+    }
+    finally {
+      resourceFile.delete();
+    }
+  }
+
+  @Test
+  public void testOutputControl() throws Exception
+  {
+    Properties properties = new Properties();
+    properties.setProperty("max-bytes", "4");
+    OutputControl outputControl = OutputControl.getInstance(new ViewMeta(new File("fixture/page.fo"), PdfView.class, properties));
+
+    ByteArrayOutputStream document = new ByteArrayOutputStream();
+    OutputStream outputStream = outputControl.limit(document);
+    outputStream.write(new byte[] { 1, 2, 3, 4 });
+    try {
+      outputStream.write(5);
+      fail("Size limit should be enforced.");
+    }
+    catch(IOException expected) {
+    }
+    assertEquals(4, document.size());
+  }
+
+  @Test
+  public void testPdfViewSpool() throws Exception
+  {
+    File targetFile = new File("fixture/page.pdf");
+    httpResponse.setTargetFile(targetFile);
+
+    Properties properties = new Properties();
+    properties.setProperty("spool", "true");
+
+    View view = new PdfView();
+    setViewMeta(view, PdfView.class, properties);
+    view.setModel(getPerson());
+    view.serialize(httpResponse);
+
+    assertEquals("application/pdf", httpResponse.getHeader("Content-Type"));
+    assertEquals(Long.toString(targetFile.length()), httpResponse.getHeader("Content-Length"));
+    assertHeaders(httpResponse);
+  }
+
+  @Test
+  public void testIntermediateCache() throws Exception
+  {
+    IntermediateCache intermediateCache = IntermediateCache.instance();
+    long missCount = intermediateCache.getMissCount();
+    long hitCount = intermediateCache.getHitCount();
+
+    File targetFile = new File("fixture/page.pdf");
+    httpResponse.setTargetFile(targetFile);
+    View directView = new PdfView();
+    setViewMeta(directView, PdfView.class, new Properties());
+    directView.setModel(getPerson());
+    directView.serialize(httpResponse);
+    String directDocument = Documents.normalize(new String(Files.readAllBytes(targetFile.toPath()), "ISO-8859-1"));
+
+    Properties properties = new Properties();
+    properties.setProperty("if-cache", "true");
+    for(int i = 0; i < 2; ++i) {
+      httpResponse = new MockHttpServletResponse();
+      httpResponse.setTargetFile(targetFile);
+
+      View view = new PdfView();
+      setViewMeta(view, PdfView.class, properties);
+      view.setModel(getPerson());
+      view.serialize(httpResponse);
+      assertEquals("application/pdf", httpResponse.getHeader("Content-Type"));
+
+      // laid out document, first rendered on cache miss then from cached layout, matches direct render
+      String document = Documents.normalize(new String(Files.readAllBytes(targetFile.toPath()), "ISO-8859-1"));
+      assertEquals(1, getPageCount(document.getBytes("ISO-8859-1")));
+      assertEquals(directDocument, document);
+    }
+
+    assertEquals(missCount + 1, intermediateCache.getMissCount());
+    assertEquals(hitCount + 1, intermediateCache.getHitCount());
+
+    // cached layout holds template content injected from model
+    ViewMeta meta = new ViewMeta(new File("fixture/page.fo"), PdfView.class, properties);
+    FopFactory fopFactory = FopFactoryRegistry.getFopFactory(meta);
+    FOUserAgent agent = fopFactory.newFOUserAgent();
+    RenderProfile profile = RenderProfile.getInstance(meta);
+    profile.configure(agent);
+    profile.getPdfProfile().configure(agent, !profile.hasTargetResolution());
+    byte[] layout = intermediateCache.get(intermediateCache.getKey(fopFactory, agent, meta.getTemplateFile(), getPerson()));
+    assertNotNull(layout);
+    assertTrue(new String(layout, "UTF-8").contains("John"));
+
+    // target resolution is part of layout and of cache key
+    properties.setProperty("target-resolution", "144");
+    httpResponse = new MockHttpServletResponse();
+    httpResponse.setTargetFile(new File("fixture/page.pdf"));
+    View view = new PdfView();
+    setViewMeta(view, PdfView.class, properties);
+    view.setModel(getPerson());
+    view.serialize(httpResponse);
+    assertEquals(missCount + 2, intermediateCache.getMissCount());
+  }
+
+  @Test
+  public void testRenderProfile() throws Exception
+  {
+    Properties properties = new Properties();
+    properties.setProperty("title", "Person");
+    properties.setProperty("target-resolution", "150");
+    properties.setProperty("renderer-options", "version:1.5");
+    RenderProfile profile = RenderProfile.getInstance(new ViewMeta(new File("fixture/page.fo"), PdfView.class, properties));
+
+    FOUserAgent agent = FopFactoryRegistry.getFopFactory(FopFactoryRegistry.DEFAULT_CONFIG, new File("fixture").toURI()).newFOUserAgent();
+    profile.configure(agent);
+    assertEquals("Person", agent.getTitle());
+    assertEquals(150, agent.getTargetResolution(), 0);
+    assertEquals("1.5", agent.getRendererOptions().get("version"));
+    assertTrue(profile.hasTargetResolution());
+
+    properties.setProperty("target-resolution", "high");
+    try {
+      RenderProfile.getInstance(new ViewMeta(new File("fixture/page.fo"), PdfView.class, properties));
+      fail("Invalid target resolution should be rejected.");
+    }
+    catch(BugError expected) {
+    }
+
+    // render timeout and FOP factory settings are resolved once, when profile is created
+    Properties timeoutProperties = new Properties();
+    timeoutProperties.setProperty("render-timeout", "250");
+    ViewMeta meta = new ViewMeta(new File("fixture/page.fo"), PdfView.class, timeoutProperties);
+    profile = RenderProfile.getInstance(meta);
+    assertSame(profile, RenderProfile.getInstance(meta));
+    assertEquals(250, profile.getRenderTimeout());
+    assertSame(profile.getFactoryConfig(), RenderProfile.getInstance(meta).getFactoryConfig());
+    assertSame(FopFactoryRegistry.getFopFactory(FopFactoryRegistry.DEFAULT_CONFIG, new File("fixture").toURI()), FopFactoryRegistry.getFopFactory(meta));
+
+    Properties fontProperties = new Properties();
+    fontProperties.setProperty("fonts", "regular.ttf");
+    fontProperties.setProperty("font-embedding", "partial");
+    try {
+      RenderProfile.getInstance(new ViewMeta(new File("fixture/page.fo"), PdfView.class, fontProperties));
+      fail("Invalid font embedding should be rejected when profile is created.");
+    }
+    catch(BugError expected) {
+    }
+  }
+
+  @Test
+  public void testTableRowStreamer() throws Exception
+  {
+    String fo = "<fo:table-body xmlns:fo='http://www.w3.org/1999/XSL/Format' xmlns:rows='http://js-lib.com/fop/rows'>" + //
+        "<rows:rows source='persons'><fo:table-row><fo:table-cell><fo:block rows:field='name'>name</fo:block></fo:table-cell></fo:table-row></rows:rows>" + //
+        "</fo:table-body>";
+    Map<String, Object> model = new HashMap<>();
+    model.put("persons", Stream.of(Collections.singletonMap("name", "John"), Collections.singletonMap("name", "Jane")));
+
+    AtomicInteger rowsCount = new AtomicInteger();
+    StringBuilder text = new StringBuilder();
+    DefaultHandler handler = new DefaultHandler()
+    {
+      @Override
+      public void startElement(String uri, String localName, String qName, Attributes attributes)
+      {
+        if("table-row".equals(localName)) {
+          rowsCount.incrementAndGet();
+        }
+        assertTrue(attributes.getIndex(TableRowStreamer.ROWS_NS, "field") == -1);
+      }
+
+      @Override
+      public void characters(char[] chars, int start, int length)
+      {
+        text.append(chars, start, length);
+      }
+    };
+
+    SAXParserFactory parserFactory = SAXParserFactory.newInstance();
+    parserFactory.setNamespaceAware(true);
+    XMLReader xmlReader = parserFactory.newSAXParser().getXMLReader();
+    xmlReader.setContentHandler(new TableRowStreamer(handler, model));
+    xmlReader.parse(new InputSource(new StringReader(fo)));
+
+    assertEquals(2, rowsCount.get());
+    assertEquals("JohnJane", text.toString());
+  }
+
+  @Test
+  public void testPdfViewLazyRows() throws Exception
+  {
+    File targetFile = new File("fixture/page.pdf");
+    httpResponse.setTargetFile(targetFile);
+
+    AtomicInteger closeCount = new AtomicInteger();
+    Contacts contacts = new Contacts();
+    contacts.title = "Contacts";
+    contacts.persons = Stream.of(contact("John", "john@mail.com"), contact("Jane", "jane@mail.com")).onClose(closeCount::incrementAndGet);
+    // row source not used by template is closed by view as well
+    contacts.archive = Stream.<Map<String, String>> empty().onClose(closeCount::incrementAndGet);
+
+    Properties properties = new Properties();
+    properties.setProperty("lazy-rows", "true");
+    View view = new PdfView();
+    Classes.invoke(view, AbstractView.class, "setMeta", new ViewMeta(new File("fixture/rows.fo"), PdfView.class, properties));
+    view.setModel(contacts);
+    view.serialize(httpResponse);
+
+    assertEquals("application/pdf", httpResponse.getHeader("Content-Type"));
+    byte[] document = Files.readAllBytes(targetFile.toPath());
+    assertEquals("%PDF-", new String(document, 0, 5, "ISO-8859-1"));
+    assertEquals(1, getPageCount(document));
+    assertEquals(2, closeCount.get());
+
+    // streamed rows reach rendered document
+    File textFile = new File("fixture/page.txt");
+    httpResponse = new MockHttpServletResponse();
+    httpResponse.setTargetFile(textFile);
+    contacts.persons = Stream.of(contact("John", "john@mail.com"), contact("Jane", "jane@mail.com")).onClose(closeCount::incrementAndGet);
+    contacts.archive = Stream.<Map<String, String>> empty().onClose(closeCount::incrementAndGet);
+    view = new TextView();
+    Classes.invoke(view, AbstractView.class, "setMeta", new ViewMeta(new File("fixture/rows.fo"), TextView.class, properties));
+    view.setModel(contacts);
+    view.serialize(httpResponse);
+
+    String text = new String(Files.readAllBytes(textFile.toPath()), "UTF-8");
+    assertTrue(text.contains("Contacts"));
+    assertTrue(text.contains("John"));
+    assertTrue(text.indexOf("John") < text.indexOf("Jane"));
+    assertEquals(4, closeCount.get());
+  }
+
+  @Test
+  public void testPdfViewPageRange() throws Exception
+  {
+    // fixture pages have distinct sizes: 200x200, 400x300 and 300x300 points
+    File templateFile = new File("fixture/pages.fo");
+    File targetFile = new File("fixture/page.pdf");
+    httpResponse.setTargetFile(targetFile);
+
+    View view = new PdfView();
+    setViewMeta(view, PdfView.class, templateFile, new Properties());
+    view.setModel(getPerson());
+    view.serialize(httpResponse);
+    assertEquals(3, getPageCount(Files.readAllBytes(targetFile.toPath())));
+
+    Properties properties = new Properties();
+    properties.setProperty("page-range", "2");
+    httpResponse = new MockHttpServletResponse();
+    httpResponse.setTargetFile(targetFile);
+    view = new PdfView();
+    setViewMeta(view, PdfView.class, templateFile, properties);
+    view.setModel(getPerson());
+    view.serialize(httpResponse);
+
+    assertEquals("application/pdf", httpResponse.getHeader("Content-Type"));
+    String document = new String(Files.readAllBytes(targetFile.toPath()), "ISO-8859-1");
+    assertTrue(document.startsWith("%PDF-"));
+    assertTrue(document.trim().endsWith("%%EOF"));
+    assertEquals(1, getPageCount(document.getBytes("ISO-8859-1")));
+    assertTrue(document.contains("/MediaBox [0 0 400 300]"));
+    assertFalse(document.contains("/MediaBox [0 0 200 200]"));
+    assertFalse(document.contains("/MediaBox [0 0 300 300]"));
+
+    properties.setProperty("page-range", "3-1");
+    try {
+      OutputControl.getInstance(new ViewMeta(new File("fixture/page.fo"), PdfView.class, properties));
+      fail("Invalid page range should be rejected.");
+    }
+    catch(BugError expected) {
+    }
+  }
+
+  @Test
+  public void testRenderWorker() throws Exception
+  {
+    ViewMeta meta = new ViewMeta(new File("fixture/page.fo"), PdfView.class, new Properties());
+    Template template = TemplateCache.instance().getTemplate(meta.getTemplateFile());
+    String fo = template.serialize(getPerson());
+    InetAddress loopback = InetAddress.getLoopbackAddress();
+    List<File> templateRoots = Arrays.asList(new File("fixture"));
+
+    try (RenderWorker worker = new RenderWorker(new InetSocketAddress(loopback, 0), templateRoots, "secret")) {
+      worker.start();
+      // not reachable address is the template affinity target, so that pool fails over to running worker
+      InetSocketAddress deadAddress = new InetSocketAddress(loopback, 1);
+      boolean deadFirst = Math.floorMod(meta.getTemplateFile().getAbsolutePath().hashCode(), 2) == 0;
+      RenderWorkerPool pool = new RenderWorkerPool(deadFirst ? Arrays.asList(deadAddress, worker.getAddress()) : Arrays.asList(worker.getAddress(), deadAddress), "secret");
+
+      for(int i = 0; i < 2; ++i) {
+        ByteArrayOutputStream document = new ByteArrayOutputStream();
+        int pageCount = pool.render(meta, PdfView.class, "application/pdf", new StringReader(fo), document);
+        String pdf = new String(document.toByteArray(), "ISO-8859-1");
+        assertTrue(pdf.startsWith("%PDF-"));
+        assertTrue(pdf.trim().endsWith("%%EOF"));
+        assertTrue(pageCount > 0);
+      }
+
+      assertRenderWorkerFailure(pool, meta, PdfView.class, "<fo:root xmlns:fo=\"http://www.w3.org/1999/XSL/Format\" />");
+      // template outside worker template directories
+      assertRenderWorkerFailure(pool, new ViewMeta(new File("pom.xml"), PdfView.class, new Properties()), PdfView.class, fo);
+      // class that is not a FO view is not loaded
+      assertRenderWorkerFailure(pool, meta, String.class, fo);
+      // wrong shared secret
+      RenderWorkerPool intruder = new RenderWorkerPool(Arrays.asList(worker.getAddress()), "guess");
+      assertRenderWorkerFailure(intruder, meta, PdfView.class, fo);
+    }
+
+    try {
+      new RenderWorker(new InetSocketAddress(0), templateRoots, null);
+      fail("Render worker on non loopback address should require shared secret.");
+    }
+    catch(BugError expected) {
+    }
+
+    // worker accepts connection but never responds; render fails on render timeout
+    try (ServerSocket hungWorker = new ServerSocket(0, 50, loopback)) {
+      Properties properties = new Properties();
+      properties.setProperty("render-timeout", "200");
+      ViewMeta timeoutMeta = new ViewMeta(new File("fixture/page.fo"), PdfView.class, properties);
+      RenderWorkerPool pool = new RenderWorkerPool(Arrays.asList((InetSocketAddress)hungWorker.getLocalSocketAddress()), null);
+      long start = System.nanoTime();
+      assertRenderWorkerFailure(pool, timeoutMeta, PdfView.class, fo);
+      assertTrue(System.nanoTime() - start < 10000000000L);
+    }
+  }
+
+  @Test
+  public void testWorkerProtocol() throws Exception
+  {
+    // frame length outside 1..FRAME_SIZE range is a protocol error, not an out of bounds read
+    for(int length : new int[]
+    {
+        -2, Integer.MIN_VALUE, WorkerProtocol.FRAME_SIZE + 1
+    }) {
+      ByteArrayOutputStream frames = new ByteArrayOutputStream();
+      new DataOutputStream(frames).writeInt(length);
+      WorkerProtocol.FrameInputStream in = new WorkerProtocol.FrameInputStream(new DataInputStream(new ByteArrayInputStream(frames.toByteArray())));
+      try {
+        in.read(new byte[16], 0, 16);
+        fail("Invalid frame length should be rejected.");
+      }
+      catch(IOException expected) {
+      }
+    }
+
+    // challenge answer depends on nonce and does not disclose the secret
+    byte[] secret = "secret".getBytes("UTF-8");
+    byte[] nonce = WorkerProtocol.newNonce();
+    byte[] answer = WorkerProtocol.answer(secret, nonce);
+    assertEquals(WorkerProtocol.ANSWER_SIZE, answer.length);
+    assertTrue(Arrays.equals(answer, WorkerProtocol.answer(secret, nonce)));
+    assertFalse(Arrays.equals(answer, WorkerProtocol.answer(secret, WorkerProtocol.newNonce())));
+    assertFalse(new String(answer, "ISO-8859-1").contains("secret"));
+    assertEquals(0, WorkerProtocol.answer(null, nonce).length);
+  }
+
+  @Test
+  public void testRenderCancellation() throws Exception
+  {
+    long failureCount = RenderMetrics.getStatistics().getFailureCount();
+    long cancelledCount = RenderMetrics.getStatistics().getCancelledCount();
+
+    // client disconnected: response output stream fails on first write
+    MockHttpServletResponse disconnectedResponse = new MockHttpServletResponse()
+    {
+      @Override
+      public ServletOutputStream getOutputStream() throws IOException
+      {
+        return new MockServletOutputStream(new OutputStream()
+        {
+          @Override
+          public void write(int b) throws IOException
+          {
+            throw new IOException("Broken pipe");
+          }
+        });
+      }
+    };
+
+    Properties properties = new Properties();
+    properties.setProperty("output-buffer-size", "16");
+    View view = new PdfView();
+    setViewMeta(view, PdfView.class, properties);
+    view.setModel(getPerson());
+    try {
+      view.serialize(disconnectedResponse);
+      fail("Render for disconnected client should be cancelled.");
+    }
+    catch(IOException e) {
+      assertTrue(RenderCancelledException.isCancelled(e));
+      // original write failure is kept as cancellation cause
+      boolean brokenPipe = false;
+      for(Throwable cause = e; cause != null; cause = cause.getCause()) {
+        brokenPipe |= "Broken pipe".equals(cause.getMessage());
+      }
+      assertTrue(brokenPipe);
+    }
+
+    assertEquals(failureCount, RenderMetrics.getStatistics().getFailureCount());
+    assertEquals(cancelledCount + 1, RenderMetrics.getStatistics().getCancelledCount());
+
+    // client disconnected on final flush: document is written but flush fails
+    MockHttpServletResponse flushFailureResponse = new MockHttpServletResponse()
+    {
+      @Override
+      public ServletOutputStream getOutputStream() throws IOException
+      {
+        return new MockServletOutputStream(new OutputStream()
+        {
+          @Override
+          public void write(int b) throws IOException
+          {
+          }
+
+          @Override
+          public void flush() throws IOException
+          {
+            throw new IOException("Connection reset");
+          }
+        });
+      }
+    };
+
+    view = new PdfView();
+    setViewMeta(view, PdfView.class);
+    view.setModel(getPerson());
+    try {
+      view.serialize(flushFailureResponse);
+      fail("Render for client disconnected on flush should be cancelled.");
+    }
+    catch(IOException e) {
+      assertTrue(RenderCancelledException.isCancelled(e));
+    }
+
+    assertEquals(failureCount, RenderMetrics.getStatistics().getFailureCount());
+    assertEquals(cancelledCount + 2, RenderMetrics.getStatistics().getCancelledCount());
+
+    // concatenated render checks cancellation on elements of every concatenated document
+    RenderCancellation concatenation = new RenderCancellation(0);
+    Person person = getPerson();
+    Iterator<Object> models = new Iterator<Object>()
+    {
+      private int index;
+
+      @Override
+      public boolean hasNext()
+      {
+        return index < 3;
+      }
+
+      @Override
+      public Object next()
+      {
+        if(++index == 2) {
+          concatenation.cancel("Render cancelled by test.");
+        }
+        return person;
+      }
+    };
+    Template template = TemplateCache.instance().getTemplate(new File("fixture/page.fo"));
+    FopFactory fopFactory = FopFactoryRegistry.getFopFactory(FopFactoryRegistry.DEFAULT_CONFIG, new File("fixture").toURI());
+    try {
+      FoConcatenator.render(fopFactory, MimeConstants.MIME_PDF, fopFactory.newFOUserAgent(), template, models, false, new ByteArrayOutputStream(), concatenation::filter);
+      fail("Cancelled concatenated render should be aborted.");
+    }
+    catch(IOException e) {
+      assertTrue(RenderCancelledException.isCancelled(e));
+    }
+    // rendering is aborted on second document and third model is never serialized
+    assertTrue(models.hasNext());
+
+    RenderCancellation cancellation = new RenderCancellation(1);
+    Thread.sleep(5);
+    try {
+      cancellation.check();
+      fail("Render past deadline should be cancelled.");
+    }
+    catch(RenderCancelledException expected) {
+    }
+    assertTrue(cancellation.isCancelled());
+  }
+
+  @Test
+  public void testRenderExecutor() throws Exception
+  {
+    RenderExecutor executor = new RenderExecutor(1, 1);
+    ViewMeta meta = new ViewMeta(new File("fixture/page.fo"), PdfView.class, new Properties());
+
+    // saturate executor: one render running and one queued, next render is rejected
+    CountDownLatch running = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    RenderExecutor.RenderTask blockedTask = () -> {
+      running.countDown();
+      try {
+        release.await();
+      }
+      catch(InterruptedException e) {
+        throw new InterruptedIOException();
+      }
+    };
+    Thread runningRender = startRender(executor, meta, blockedTask);
+    running.await();
+    Thread queuedRender = startRender(executor, meta, blockedTask);
+    while(executor.getQueuedCount() == 0) {
+      Thread.sleep(1);
+    }
+
+    MockHttpServletResponse httpResponse = new MockHttpServletResponse();
+    AtomicBoolean rejectedTaskRun = new AtomicBoolean();
+    executor.render(meta, httpResponse, () -> rejectedTaskRun.set(true));
+    assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, httpResponse.getStatus());
+    assertEquals("5", httpResponse.getHeader("Retry-After"));
+    assertFalse(rejectedTaskRun.get());
+    assertEquals(1, executor.getRejectedCount());
+
+    release.countDown();
+    runningRender.join();
+    queuedRender.join();
+
+    // timeout: render thread is interrupted and render returns only after task unwinds
+    Properties properties = new Properties();
+    properties.setProperty("render-timeout", "100");
+    ViewMeta timeoutMeta = new ViewMeta(new File("fixture/page.fo"), PdfView.class, properties);
+    AtomicBoolean taskDone = new AtomicBoolean();
+    try {
+      executor.render(timeoutMeta, new MockHttpServletResponse(), () -> {
+        try {
+          Thread.sleep(10000);
+        }
+        catch(InterruptedException e) {
+          try {
+            Thread.sleep(100);
+          }
+          catch(InterruptedException ignored) {
+          }
+          taskDone.set(true);
+          throw new InterruptedIOException();
+        }
+      });
+      fail("Render over timeout should fail.");
+    }
+    catch(IOException expected) {
+    }
+    assertTrue(taskDone.get());
+    assertEquals(1, executor.getTimedOutCount());
+  }
+
+  private static MockHttpServletResponse conditionalGet(View view, String ifNoneMatch, OutputStream body) throws Exception
+  {
+    HttpServletRequest httpRequest = (HttpServletRequest)Proxy.newProxyInstance(ViewUnitTest.class.getClassLoader(), new Class<?>[]
+    {
+        HttpServletRequest.class
+    }, (proxy, method, arguments) -> {
+      switch(method.getName()) {
+      case "getHeader":
+        return "If-None-Match".equals(arguments[0]) ? ifNoneMatch : null;
+      case "getDateHeader":
+        return -1L;
+      default:
+        throw new UnsupportedOperationException(method.getName());
+      }
+    });
+
+    MockHttpServletResponse conditionalResponse = new MockHttpServletResponse()
+    {
+      @Override
+      public ServletOutputStream getOutputStream() throws IOException
+      {
+        return new MockServletOutputStream(body);
+      }
+    };
+    new ConditionalGetFilter().doFilter(httpRequest, conditionalResponse, (request, response) -> view.serialize((HttpServletResponse)response));
+    return conditionalResponse;
+  }
+
+  private static Thread startRender(RenderExecutor executor, ViewMeta meta, RenderExecutor.RenderTask task)
+  {
+    Thread thread = new Thread(() -> {
+      try {
+        executor.render(meta, new MockHttpServletResponse(), task);
+      }
+      catch(IOException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    thread.start();
+    return thread;
+  }
+
+  private static void assertRenderWorkerFailure(RenderWorkerPool pool, ViewMeta meta, Class<?> viewClass, String fo)
+  {
+    try {
+      pool.render(meta, viewClass, "application/pdf", new StringReader(fo), new ByteArrayOutputStream());
+      fail("Render worker request should fail.");
+    }
+    catch(IOException expected) {
+    }
+  }
+
   private static void assertHeaders(HttpServletResponse httpResponse) {
     assertEquals("no-cache;no-store", httpResponse.getHeader("Cache-Control"));
     assertEquals("no-cache", httpResponse.getHeader("Pragma"));
@@ -74,9 +1282,29 @@ public class ViewUnitTest
   
   private static void setViewMeta(View view, Class<? extends View> type) throws Exception
   {
-    Properties properties = new Properties();
+    setViewMeta(view, type, new Properties());
+  }
+
+  private static void setViewMeta(View view, Class<? extends View> type, Properties properties) throws Exception
+  {
+    setViewMeta(view, type, new File("fixture/page.fo"), properties);
+  }
+
+  private static void setViewMeta(View view, Class<? extends View> type, File templateFile, Properties properties) throws Exception
+  {
     properties.setProperty("font-base-url", "C:/Windows/Fonts");
-    Classes.invoke(view, AbstractView.class, "setMeta", new ViewMeta(new File("fixture/page.fo"), type, properties));
+    Classes.invoke(view, AbstractView.class, "setMeta", new ViewMeta(templateFile, type, properties));
+  }
+
+  /** Count page objects from PDF document; page dictionaries are not compressed. */
+  private static int getPageCount(byte[] document) throws Exception
+  {
+    Matcher matcher = Pattern.compile("/Type /Page\\b").matcher(new String(document, "ISO-8859-1"));
+    int pageCount = 0;
+    while(matcher.find()) {
+      ++pageCount;
+    }
+    return pageCount;
   }
 
   private static Person getPerson() throws Exception
@@ -85,26 +1313,60 @@ public class ViewUnitTest
     return person;
   }
 
+  private static Map<String, String> contact(String name, String email)
+  {
+    Map<String, String> contact = new HashMap<>();
+    contact.put("name", name);
+    contact.put("email", email);
+    return contact;
+  }
+
   // ------------------------------------------------------
   // FIXTURE
 
+  private static class Contacts
+  {
+    String title;
+    Stream<Map<String, String>> persons;
+    Stream<Map<String, String>> archive;
+  }
+
   private static class MockHttpServletResponse extends HttpServletResponseStub
   {
     private DateFormat df = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss z");
     private Map<String, String> headers = new HashMap<String, String>();
     private File targetFile;
+    private int status = SC_OK;
 
     public void setTargetFile(File targetFile)
     {
       this.targetFile = targetFile;
     }
 
+    @Override
+    public void setStatus(int status)
+    {
+      this.status = status;
+    }
+
+    @Override
+    public int getStatus()
+    {
+      return status;
+    }
+
     @Override
     public void setContentType(String contentType)
     {
       setHeader("Content-Type", contentType);
     }
 
+    @Override
+    public void setContentLengthLong(long contentLength)
+    {
+      setHeader("Content-Length", Long.toString(contentLength));
+    }
+
     @Override
     public void setHeader(String header, String value)
     {
@@ -121,6 +1383,12 @@ public class ViewUnitTest
       setHeader(header, this.df.format(date));
     }
 
+    @Override
+    public void setIntHeader(String header, int value)
+    {
+      setHeader(header, Integer.toString(value));
+    }
+
     @Override
     public void addHeader(String header, String value)
     {